@@ -0,0 +1,288 @@
+package org.popp.bits;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An output stream that accumulates bytes into a buffer while a background
+ * thread drains previously filled buffers to the wrapped stream.  Wrapping
+ * it in a BitOutputStream keeps the encoding thread from stalling on slow
+ * disk or socket writes:
+ *
+ * new BitOutputStream(new AsyncOutputStream(socketStream))
+ *
+ * At most queueDepth filled buffers may be waiting on the drain thread.  Once
+ * that many are outstanding, the writing thread blocks until one has been
+ * drained, so a slow sink applies backpressure instead of growing memory.
+ *
+ * flush() and close() block until every buffer handed to the drain thread
+ * has been written to the wrapped stream.  Any exception raised by the
+ * wrapped stream is rethrown to the writing thread, as an IOException, on
+ * its next write, flush or close.
+ */
+public class AsyncOutputStream extends OutputStream {
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_QUEUE_DEPTH = 2;
+
+	// handed to the drain thread to tell it to exit
+	private static final Buffer SHUTDOWN = new Buffer(0);
+
+	private final OutputStream os;
+	private final BlockingQueue<Buffer> filled;
+	private final BlockingQueue<Buffer> free;
+	private final Thread drainThread;
+
+	// guarded by this, used to wait for the drain thread to catch up
+	private long buffersSubmitted = 0;
+	private long buffersDrained = 0;
+
+	private volatile IOException failure;
+
+	private Buffer current;
+	private boolean closed = false;
+
+	public AsyncOutputStream(OutputStream os) {
+		this(os, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH);
+	}
+
+	public AsyncOutputStream(OutputStream os, int bufferSize, int queueDepth) {
+		if(bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+		}
+		if(queueDepth <= 0) {
+			throw new IllegalArgumentException("queueDepth must be positive: " + queueDepth);
+		}
+
+		this.os = os;
+
+		// one slot more than the depth so the shutdown marker never blocks
+		this.filled = new ArrayBlockingQueue<Buffer>(queueDepth + 1);
+		this.free = new ArrayBlockingQueue<Buffer>(queueDepth);
+		for(int i = 0; i < queueDepth; i++) {
+			free.add(new Buffer(bufferSize));
+		}
+		this.current = new Buffer(bufferSize);
+
+		this.drainThread = new Thread(new Drainer(), "AsyncOutputStream-drain");
+		this.drainThread.setDaemon(true);
+		this.drainThread.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+
+		if(current.length == current.data.length) {
+			submit();
+		}
+
+		current.data[current.length++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+
+		if(off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		while(len > 0) {
+			if(current.length == current.data.length) {
+				submit();
+			}
+
+			int toCopy = Math.min(len, current.data.length - current.length);
+			System.arraycopy(b, off, current.data, current.length, toCopy);
+			current.length += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	/**
+	 * Hands any buffered bytes to the drain thread and waits until they,
+	 * and everything before them, have been written to and flushed on the
+	 * wrapped stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+
+		if(current.length > 0) {
+			submit();
+		}
+		awaitDrained();
+
+		os.flush();
+	}
+
+	/**
+	 * Drains all buffered bytes, stops the drain thread and closes the
+	 * wrapped stream.  The wrapped stream is closed by the drain thread once
+	 * it has written everything queued before it, and this waits for that
+	 * to happen even if the calling thread is interrupted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+
+		IOException flushFailure = null;
+		try {
+			if(failure == null) {
+				flush();
+			}
+		} catch (IOException e) {
+			flushFailure = e;
+		} finally {
+			closed = true;
+
+			// the queue keeps a slot free for the marker, so this never
+			// blocks, even if this thread has already been interrupted
+			filled.offer(SHUTDOWN);
+			joinDrainThread();
+		}
+
+		// the first failure is the interesting one
+		if(flushFailure != null) {
+			throw flushFailure;
+		}
+		rethrowFailure();
+	}
+
+	/**
+	 * Waits for the drain thread to exit, restoring this thread's interrupt
+	 * status afterwards if it was interrupted while waiting
+	 */
+	private void joinDrainThread() {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				drainThread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues the current buffer for draining and swaps in an empty one,
+	 * blocking while queueDepth buffers are already outstanding.
+	 */
+	private void submit() throws IOException {
+		try {
+			Buffer next = free.take();
+
+			synchronized(this) {
+				++buffersSubmitted;
+			}
+			filled.put(current);
+
+			current = next;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+		}
+
+		rethrowFailure();
+	}
+
+	private synchronized void awaitDrained() throws IOException {
+		try {
+			while(buffersDrained < buffersSubmitted) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for buffers to drain");
+		}
+
+		rethrowFailure();
+	}
+
+	private synchronized void drained() {
+		++buffersDrained;
+		notifyAll();
+	}
+
+	private void ensureOpen() throws IOException {
+		if(closed) {
+			throw new IOException("Stream closed");
+		}
+		rethrowFailure();
+	}
+
+	private void rethrowFailure() throws IOException {
+		IOException e = failure;
+		if(e != null) {
+			throw new IOException("Background write to underlying stream failed", e);
+		}
+	}
+
+	private class Drainer implements Runnable {
+		public void run() {
+			while(true) {
+				Buffer buffer;
+				try {
+					buffer = filled.take();
+				} catch (InterruptedException e) {
+					// the stream never interrupts this thread, so ignore
+					// a stray interrupt and keep draining
+					continue;
+				}
+
+				if(buffer == SHUTDOWN) {
+					// everything queued has been written, so it is now
+					// safe to close the wrapped stream
+					try {
+						os.close();
+					} catch (IOException e) {
+						if(failure == null) {
+							failure = e;
+						}
+					} catch (Throwable e) {
+						if(failure == null) {
+							failure = new IOException("Underlying stream threw an unexpected exception", e);
+						}
+					}
+					return;
+				}
+
+				// once the sink has failed, keep recycling buffers so the
+				// writing thread never blocks forever, but stop writing
+				try {
+					if(failure == null) {
+						os.write(buffer.data, 0, buffer.length);
+					}
+				} catch (IOException e) {
+					failure = e;
+				} catch (Throwable e) {
+					failure = new IOException("Underlying stream threw an unexpected exception", e);
+				} finally {
+					buffer.length = 0;
+					free.add(buffer);
+					drained();
+				}
+			}
+		}
+	}
+
+	private static class Buffer {
+		private final byte[] data;
+		private int length = 0;
+
+		Buffer(int size) {
+			this.data = new byte[size];
+		}
+	}
+}
@@ -5,17 +5,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 
+import org.popp.bits.BitStreamStatistics.Operation;
+import org.popp.bits.BitStreamStatistics.SizeClass;
+
 public class BitInputStream extends InputStream{
 	private static final int BITS_IN_BYTE = 8;
 	private final static int[] LOW_ORDER_BIT_MASKS = {0x00, 0x01, 0x03, 0x7, 0xF, 0x1F, 0x3F, 0x7F, 0xFF};
 	
+	// bulk reads are unpacked this many bytes at a time
+	private static final int PACKING_BUFFER_SIZE = 8 * 1024;
+	
 	private final DataInputStream is;
+	private final BitStreamCounters counters;
 	
 	private int currentByte = -1;
 	private short bitPosition = 0;
 	
+	// size class of the last dynamic number read, for statistics
+	private SizeClass lastSizeClass;
+	
+	// allocated on the first bulk read and reused after that
+	private byte[] packingBuffer;
+	
 	public BitInputStream(InputStream is) {
+		this(is, null);
+	}
+	
+	/**
+	 * Creates a stream that records what it reads into the supplied
+	 * statistics.  statistics may be null to disable collection.
+	 */
+	public BitInputStream(InputStream is, BitStreamStatistics statistics) {
 		this.is = new DataInputStream(is);
+		this.counters = statistics == null ? null : new BitStreamCounters(statistics);
 	}
 	
 	/**
@@ -23,6 +45,16 @@ public class BitInputStream extends InputStream{
 	 * of the stream has been reached.
 	 */
 	public int readBit() throws IOException {
+		int bit = nextBit();
+		
+		if(counters != null && bit != -1) {
+			counters.read(Operation.BIT, 1);
+		}
+		
+		return bit;
+	}
+	
+	private int nextBit() throws IOException {
 		prime();
 		
 		if(currentByte == -1) {
@@ -44,6 +76,16 @@ public class BitInputStream extends InputStream{
 	 */
 	@Override
 	public int read() throws IOException {
+		int b = nextByte();
+		
+		if(counters != null && b != -1) {
+			counters.read(Operation.BYTE, BITS_IN_BYTE);
+		}
+		
+		return b;
+	}
+	
+	private int nextByte() throws IOException {
 		prime();
 		
 		if(currentByte == -1) {
@@ -73,6 +115,7 @@ public class BitInputStream extends InputStream{
 		if(currentByte == -1) {
 			throw new IOException("Insufficient data remaining to read byte");
 		}
+		bytesFilled(1);
 		
 		// read in the remaining bits from the new byte
 		// say bitPosition is 1...we need to shift 7.  if it is 7, we need to shift 1
@@ -88,15 +131,108 @@ public class BitInputStream extends InputStream{
 		return readBit() == 0 ? false : true;
 	}
 	
+	/**
+	 * Reads count bits from the stream, high bit first, returning them in
+	 * the low bits of a long.  count may be anywhere from 0 to 64.
+	 */
+	public long readBits(int count) throws IOException {
+		if(count < 0 || count > 64) {
+			throw new IllegalArgumentException("count must be between 0 and 64: " + count);
+		}
+		
+		long value = 0;
+		int bitsLeft = count;
+		while(bitsLeft >= BITS_IN_BYTE) {
+			int b = nextByte();
+			if(b == -1) {
+				throw new IOException("Insufficient data remaining to read bits");
+			}
+			value = (value << BITS_IN_BYTE) | b;
+			bitsLeft -= BITS_IN_BYTE;
+		}
+		while(bitsLeft > 0) {
+			int bit = nextBit();
+			if(bit == -1) {
+				throw new IOException("Insufficient data remaining to read bits");
+			}
+			value = (value << 1) | bit;
+			--bitsLeft;
+		}
+		
+		if(counters != null) {
+			counters.read(Operation.FIXED_WIDTH, count);
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Reads length values of the given width into values, giving the same
+	 * results as calling (int)readBits(width) for each one.  width may be
+	 * anywhere from 1 to 32.  The bytes holding the values are read a
+	 * buffer's worth at a time and unpacked in bulk with BitPacking rather
+	 * than a bit at a time.
+	 */
+	public void readBits(int width, int[] values, int offset, int length) throws IOException {
+		BitPacking.checkWidth(width);
+		if(offset < 0 || length < 0 || offset + length > values.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if(length == 0) {
+			return;
+		}
+		
+		if(packingBuffer == null) {
+			packingBuffer = new byte[PACKING_BUFFER_SIZE];
+		}
+		
+		// leave a byte for the unread bits of the current byte
+		int valuesPerChunk = (PACKING_BUFFER_SIZE - 1) * BITS_IN_BYTE / width;
+		for(int end = offset + length; offset < end; offset += valuesPerChunk) {
+			unpackChunk(width, values, offset, Math.min(valuesPerChunk, end - offset));
+		}
+		
+		if(counters != null) {
+			counters.read(Operation.FIXED_WIDTH, (long)width * length);
+		}
+	}
+	
+	private void unpackChunk(int width, int[] values, int offset, int length) throws IOException {
+		// unread bits of the current byte come first
+		boolean partial = currentByte != -1 && bitPosition < BITS_IN_BYTE;
+		int skip = partial ? bitPosition : 0;
+		
+		int totalBits = skip + width * length;
+		int packedLength = (totalBits + BITS_IN_BYTE - 1) / BITS_IN_BYTE;
+		int start = 0;
+		if(partial) {
+			packingBuffer[start++] = (byte)currentByte;
+		}
+		is.readFully(packingBuffer, start, packedLength - start);
+		bytesFilled(packedLength - start);
+		
+		BitPacking.unpack(packingBuffer, 0, skip, width, values, offset, length);
+		
+		// the last byte becomes the current byte, fully consumed or not
+		int bitsUsed = totalBits % BITS_IN_BYTE;
+		currentByte = packingBuffer[packedLength - 1] & 0xFF;
+		bitPosition = (short)(bitsUsed == 0 ? BITS_IN_BYTE : bitsUsed);
+	}
+	
 	public String readUTF(boolean align) throws IOException {
-		int length = (int)readDynamicNumber();
+		int length = (int)nextDynamicNumber();
+		SizeClass lengthSizeClass = lastSizeClass;
 		if(align && length > 0) {
 			align();
 		}
 		byte[] data = new byte[length];
 		
 		for(int i = 0; i < data.length; i++) {
-			data[i] = (byte)read();
+			data[i] = (byte)nextByte();
+		}
+		
+		if(counters != null) {
+			counters.read(Operation.UTF, lengthSizeClass.getEncodedBits() + (long)length * BITS_IN_BYTE);
 		}
 		
 		return new String(data, Charset.forName("UTF-8"));
@@ -107,32 +243,48 @@ public class BitInputStream extends InputStream{
 	 * BitOutputStream for format information
 	 */
 	public long readDynamicNumber() throws IOException {
-		if(readBit() == 0) { // is it zero?
+		long number = nextDynamicNumber();
+		
+		if(counters != null) {
+			counters.dynamicNumberRead(lastSizeClass);
+		}
+		
+		return number;
+	}
+	
+	private long nextDynamicNumber() throws IOException {
+		if(nextBit() == 0) { // is it zero?
+			lastSizeClass = SizeClass.ZERO;
 			return 0;
 		}
 		
-		boolean isPositive = readBit() == 0;
+		boolean isPositive = nextBit() == 0;
 		
-		if(readBit() == 0) {
+		if(nextBit() == 0) {
+			lastSizeClass = SizeClass.ONE;
 			return isPositive ? 1 : -1;
 		}
 		
 		int byteSize;
 		
-		if(readBit() == 0) { // 8 bit number
+		if(nextBit() == 0) { // 8 bit number
 			byteSize = 1;
-		} else if(readBit() == 0) { // 16 bit number
+			lastSizeClass = SizeClass.BITS_8;
+		} else if(nextBit() == 0) { // 16 bit number
 			byteSize = 2;
-		} else if(readBit() == 0) { // 32 bit number
+			lastSizeClass = SizeClass.BITS_16;
+		} else if(nextBit() == 0) { // 32 bit number
 			byteSize = 4;
+			lastSizeClass = SizeClass.BITS_32;
 		} else { // 64 bit number
 			byteSize = 8;
+			lastSizeClass = SizeClass.BITS_64;
 		}
 		
 		long number = 0L;
 		for(int i = 0; i < byteSize; i++) {
 			number <<= 8;
-			number |= read(); // read 
+			number |= nextByte(); // read 
 		}
 	
 		if(!isPositive) {
@@ -148,15 +300,43 @@ public class BitInputStream extends InputStream{
 	 * reads will occur at the beginning of the next byte boundary.
 	 */
 	public void align() {
+		if(counters != null && currentByte != -1 && bitPosition < BITS_IN_BYTE) {
+			counters.paddingRead(BITS_IN_BYTE - bitPosition);
+		}
+		
 		bitPosition = 8;
 	}
 	
+	/**
+	 * Publishes the counts gathered so far to the stream's statistics and
+	 * closes the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if(counters != null) {
+			counters.publish();
+		}
+		is.close();
+	}
+	
 	private void prime() throws IOException{
 		if(currentByte == -1) {
 			currentByte = is.read();
 		} else if(bitPosition == 8) {
 			currentByte = is.read();
 			bitPosition = 0;
+		} else {
+			return;
+		}
+		
+		if(currentByte != -1) {
+			bytesFilled(1);
+		}
+	}
+	
+	private void bytesFilled(int bytes) {
+		if(counters != null) {
+			counters.bytesFilled(bytes);
 		}
 	}
 }
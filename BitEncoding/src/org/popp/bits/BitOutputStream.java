@@ -4,8 +4,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 
+import org.popp.bits.BitStreamStatistics.Operation;
+import org.popp.bits.BitStreamStatistics.SizeClass;
+
 public class BitOutputStream extends OutputStream {
 	private final OutputStream os;
+	private final BitStreamCounters counters;
 	
 	private static final int BITS_IN_BYTE = 8;
 	private final static int[] LOW_ORDER_BIT_MASKS = {0x00, 0x01, 0x03, 0x7, 0xF, 0x1F, 0x3F, 0x7F, 0xFF};
@@ -14,17 +18,40 @@ public class BitOutputStream extends OutputStream {
 	private static final long MAX_16_BIT_NUMBER = (1L << 16) - 1;
 	private static final long MAX_32_BIT_NUMBER = (1L << 32) - 1;
 	
+	// bulk writes are packed this many bytes at a time
+	private static final int PACKING_BUFFER_SIZE = 8 * 1024;
+	
 	private int currentByte = 0;
 	private int bitPosition = 0;
 	
+	// allocated on the first bulk write and reused after that
+	private byte[] packingBuffer;
+	
 	public BitOutputStream(OutputStream os) {
+		this(os, null);
+	}
+	
+	/**
+	 * Creates a stream that records what it writes into the supplied
+	 * statistics.  statistics may be null to disable collection.
+	 */
+	public BitOutputStream(OutputStream os, BitStreamStatistics statistics) {
 		this.os = os;
+		this.counters = statistics == null ? null : new BitStreamCounters(statistics);
 	}
 	
 	/**
 	 * Write a single bit to the stream
 	 */
 	public void writeBit(int bit) throws IOException {
+		putBit(bit);
+		
+		if(counters != null) {
+			counters.written(Operation.BIT, 1);
+		}
+	}
+	
+	private void putBit(int bit) throws IOException {
 		// mask off to make sure we only grab the low order bit
 		bit &= 0x01;
 		
@@ -48,8 +75,17 @@ public class BitOutputStream extends OutputStream {
 	 */
 	@Override
 	public void write(int b) throws IOException {
+		putByte(b);
+		
+		if(counters != null) {
+			counters.written(Operation.BYTE, BITS_IN_BYTE);
+		}
+	}
+	
+	private void putByte(int b) throws IOException {
 		if(bitPosition == 0) {
 			os.write(b);
+			bytesFlushed(1);
 			return;
 		}
 		
@@ -64,6 +100,7 @@ public class BitOutputStream extends OutputStream {
 		
 		// write out the buffer byte and clear it
 		os.write(currentByte);
+		bytesFlushed(1);
 		currentByte = 0x00;
 		
 		// now that we have a fresh buffer byte, put the remaining
@@ -88,13 +125,87 @@ public class BitOutputStream extends OutputStream {
 		writeBit(value ? 1 : 0);
 	}
 	
+	/**
+	 * Write the low count bits of value to the stream, high bit first.
+	 * count may be anywhere from 0 to 64.
+	 */
+	public void writeBits(long value, int count) throws IOException {
+		if(count < 0 || count > 64) {
+			throw new IllegalArgumentException("count must be between 0 and 64: " + count);
+		}
+		
+		int bitsLeft = count;
+		while(bitsLeft >= BITS_IN_BYTE) {
+			bitsLeft -= BITS_IN_BYTE;
+			putByte((int)(value >>> bitsLeft));
+		}
+		while(bitsLeft > 0) {
+			--bitsLeft;
+			putBit((int)(value >>> bitsLeft));
+		}
+		
+		if(counters != null) {
+			counters.written(Operation.FIXED_WIDTH, count);
+		}
+	}
+	
+	/**
+	 * Write the low width bits of each of length values, producing the same
+	 * stream as calling writeBits(values[i], width) for each one.  width may
+	 * be anywhere from 1 to 32.  The values are packed in bulk with
+	 * BitPacking rather than a bit at a time, a buffer's worth at a time.
+	 */
+	public void writeBits(int width, int[] values, int offset, int length) throws IOException {
+		BitPacking.checkWidth(width);
+		if(offset < 0 || length < 0 || offset + length > values.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if(length == 0) {
+			return;
+		}
+		
+		if(packingBuffer == null) {
+			packingBuffer = new byte[PACKING_BUFFER_SIZE];
+		}
+		
+		// leave a byte for the bits already sitting in the current byte
+		int valuesPerChunk = (PACKING_BUFFER_SIZE - 1) * BITS_IN_BYTE / width;
+		for(int end = offset + length; offset < end; offset += valuesPerChunk) {
+			packChunk(width, values, offset, Math.min(valuesPerChunk, end - offset));
+		}
+		
+		if(counters != null) {
+			counters.written(Operation.FIXED_WIDTH, (long)width * length);
+		}
+	}
+	
+	private void packChunk(int width, int[] values, int offset, int length) throws IOException {
+		// pack behind the bits already sitting in the current byte
+		int totalBits = bitPosition + width * length;
+		BitPacking.pack(currentByte >>> (BITS_IN_BYTE - bitPosition), bitPosition, values, offset, length, width, packingBuffer, 0);
+		
+		int fullBytes = totalBits / BITS_IN_BYTE;
+		os.write(packingBuffer, 0, fullBytes);
+		bytesFlushed(fullBytes);
+		
+		// whatever is left over becomes the new partially filled byte
+		bitPosition = totalBits % BITS_IN_BYTE;
+		currentByte = bitPosition > 0 ? packingBuffer[fullBytes] & 0xFF : 0x00;
+	}
+	
 	public void writeUTF(String string, boolean align) throws IOException {
 		byte[] data = string.getBytes(Charset.forName("UTF-8"));
-		writeDynamicNumber(data.length);
+		SizeClass lengthSizeClass = putDynamicNumber(data.length);
 		if(align && data.length > 0) {
 			align();
 		}
-		write(data);
+		for(byte b : data) {
+			putByte(b);
+		}
+		
+		if(counters != null) {
+			counters.written(Operation.UTF, lengthSizeClass.getEncodedBits() + (long)data.length * BITS_IN_BYTE);
+		}
 	}
 	
 	/**
@@ -124,63 +235,73 @@ public class BitOutputStream extends OutputStream {
 	 * 70 bits.
 	 */
 	public void writeDynamicNumber(long number) throws IOException {
+		SizeClass sizeClass = putDynamicNumber(number);
+		
+		if(counters != null) {
+			counters.dynamicNumberWritten(sizeClass);
+		}
+	}
+	
+	private SizeClass putDynamicNumber(long number) throws IOException {
 		if(number == 0) { // 0 is 0
-			writeBit(0);
-			return;
+			putBit(0);
+			return SizeClass.ZERO;
 		}
 		
-		writeBit(1);
+		putBit(1);
 		
 		if(number > 0) {
-			writeBit(0); // 0 for positive, 1 for negative
+			putBit(0); // 0 for positive, 1 for negative
 		} else {
-			writeBit(1);
+			putBit(1);
 		}
 		
 		number = Math.abs(number);
 		
 		if(number == 1) { // 1S0 is 1
-			writeBit(0);
-			return;
+			putBit(0);
+			return SizeClass.ONE;
 		}
 		
-		writeBit(1);
+		putBit(1);
 		
 		if(number > 0 && number <= MAX_8_BIT_NUMBER) { // 1S10 is 8 bit number
-			writeBit(0);
-			write((int)number);
-			return;
+			putBit(0);
+			putByte((int)number);
+			return SizeClass.BITS_8;
 		}
 		
-		writeBit(1);
+		putBit(1);
 		
 		if(number > 0 && number <= MAX_16_BIT_NUMBER) { // 1S110 is 16 bit number
-			writeBit(0);
-			write(((int)(number>>>8))); // high 8 bits
-			write((int)number); // low 8 bits
-			return;
+			putBit(0);
+			putByte(((int)(number>>>8))); // high 8 bits
+			putByte((int)number); // low 8 bits
+			return SizeClass.BITS_16;
 		}
 		
-		writeBit(1);
+		putBit(1);
 		
 		if(number > 0 && number <= MAX_32_BIT_NUMBER) { // 1S1110 is 32 bit number
-			writeBit(0);
-			write((int)number>>>24);
-			write((int)number>>>16);
-			write((int)number>>>8);
-			write((int)number);
-			return;
+			putBit(0);
+			putByte((int)number>>>24);
+			putByte((int)number>>>16);
+			putByte((int)number>>>8);
+			putByte((int)number);
+			return SizeClass.BITS_32;
 		}
 		
-		writeBit(1); // 1S1111 is 64 bit number
-		write((int)(number>>>56));
-		write((int)(number>>>48));
-		write((int)(number>>>40));
-		write((int)(number>>>32));
-		write((int)(number>>>24));
-		write((int)(number>>>16));
-		write((int)(number>>>8));
-		write((int)(number));
+		putBit(1); // 1S1111 is 64 bit number
+		putByte((int)(number>>>56));
+		putByte((int)(number>>>48));
+		putByte((int)(number>>>40));
+		putByte((int)(number>>>32));
+		putByte((int)(number>>>24));
+		putByte((int)(number>>>16));
+		putByte((int)(number>>>8));
+		putByte((int)(number));
+		
+		return SizeClass.BITS_64;
 	}
 	
 	/**
@@ -199,24 +320,51 @@ public class BitOutputStream extends OutputStream {
 		flush();
 	}
 	
+	/**
+	 * Writes out any partially filled byte, padding it with zeros, and
+	 * publishes the counts gathered so far to the stream's statistics
+	 */
 	@Override
 	public void flush() throws IOException {
+		writeCurrentByte();
+		
+		if(counters != null) {
+			counters.publish();
+		}
+	}
+	
+	private void writeCurrentByte() throws IOException {
 		if(bitPosition > 0) {
+			if(counters != null && bitPosition < BITS_IN_BYTE) {
+				counters.paddingWritten(BITS_IN_BYTE - bitPosition);
+			}
+			
 			os.write(currentByte);
+			bytesFlushed(1);
 			bitPosition = 0;
 			currentByte = 0x00;
 		}
 	}
 	
+	private void bytesFlushed(int bytes) {
+		if(counters != null) {
+			counters.bytesFlushed(bytes);
+		}
+	}
+	
 	private void flushIfNecessary() throws IOException {
 		if(bitPosition == 8) {
-			flush();
+			writeCurrentByte();
 		}
 	}
 	
 	@Override
 	public void close() throws IOException {
 		flushIfNecessary();
+		
+		if(counters != null) {
+			counters.publish();
+		}
 		os.close();
 	}
 }
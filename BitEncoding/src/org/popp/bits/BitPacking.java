@@ -0,0 +1,162 @@
+package org.popp.bits;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk packing and unpacking of fixed width values, 1 to 32 bits each.
+ *
+ * Values are laid out exactly as a sequence of BitOutputStream.writeBits
+ * calls would write them: high bit first, with no padding between values.
+ * Unpacking gives the same results as calling BitInputStream.readBits once
+ * per value, but works a 64 bit word at a time, pulling every value that
+ * lies entirely within a word out of a single load rather than assembling
+ * each value bit by bit.
+ */
+public final class BitPacking {
+	private static final int BITS_IN_BYTE = 8;
+	private static final int BITS_IN_LONG = 64;
+	private static final int MAX_WIDTH = 32;
+
+	private BitPacking() {
+	}
+
+	/**
+	 * Returns the number of bytes needed to pack count values of the given
+	 * width
+	 */
+	public static int packedLength(int width, int count) {
+		checkWidth(width);
+		return (int)(((long)width * count + BITS_IN_BYTE - 1) / BITS_IN_BYTE);
+	}
+
+	/**
+	 * Packs the low width bits of length values into destination starting
+	 * at destinationOffset, writing packedLength(width, length) bytes.  Any
+	 * bits of the final byte past the last value are zero.
+	 */
+	public static void pack(int[] values, int offset, int length, int width, byte[] destination, int destinationOffset) {
+		pack(0, 0, values, offset, length, width, destination, destinationOffset);
+	}
+
+	/**
+	 * Unpacks length values of the given width from source starting at
+	 * sourceOffset.  Values of width 32 that have their high bit set come
+	 * back negative, as they would from (int)readBits(32).
+	 */
+	public static void unpack(byte[] source, int sourceOffset, int width, int[] values, int offset, int length) {
+		unpack(source, sourceOffset, 0, width, values, offset, length);
+	}
+
+	/**
+	 * Packs values after leadingBitCount bits (fewer than 8) taken from the
+	 * low bits of leadingBits.  The written bytes start with the leading
+	 * bits, which lets a stream pack behind a partially filled byte.
+	 */
+	static void pack(int leadingBits, int leadingBitCount, int[] values, int offset, int length, int width, byte[] destination, int destinationOffset) {
+		checkWidth(width);
+		checkRange(values.length, offset, length);
+		int byteCount = (int)(((long)width * length + leadingBitCount + BITS_IN_BYTE - 1) / BITS_IN_BYTE);
+		checkRange(destination.length, destinationOffset, byteCount);
+
+		ByteBuffer buffer = ByteBuffer.wrap(destination);
+		long mask = 0xFFFFFFFFL >>> (MAX_WIDTH - width);
+
+		// pending holds the low pendingBits bits not yet written out
+		long pending = leadingBits & (0xFF >>> (BITS_IN_BYTE - leadingBitCount));
+		int pendingBits = leadingBitCount;
+		int position = destinationOffset;
+
+		for(int i = offset; i < offset + length; i++) {
+			long value = values[i] & mask;
+
+			if(pendingBits + width < BITS_IN_LONG) {
+				pending = (pending << width) | value;
+				pendingBits += width;
+			} else {
+				// fill the word with the high bits of the value, keep the rest
+				int fit = BITS_IN_LONG - pendingBits;
+				int left = width - fit;
+				buffer.putLong(position, (pending << fit) | (value >>> left));
+				position += BITS_IN_LONG / BITS_IN_BYTE;
+				pending = value & ((1L << left) - 1);
+				pendingBits = left;
+			}
+		}
+
+		// write out the remaining bits high byte first, zero filling the last byte
+		if(pendingBits > 0) {
+			pending <<= BITS_IN_LONG - pendingBits;
+			for(int bits = 0; bits < pendingBits; bits += BITS_IN_BYTE) {
+				destination[position++] = (byte)(pending >>> (BITS_IN_LONG - BITS_IN_BYTE - bits));
+			}
+		}
+	}
+
+	/**
+	 * Unpacks values starting bitOffset bits (fewer than 8) into the byte
+	 * at sourceOffset
+	 */
+	static void unpack(byte[] source, int sourceOffset, int bitOffset, int width, int[] values, int offset, int length) {
+		checkWidth(width);
+		checkRange(values.length, offset, length);
+		int byteCount = (int)(((long)width * length + bitOffset + BITS_IN_BYTE - 1) / BITS_IN_BYTE);
+		checkRange(source.length, sourceOffset, byteCount);
+
+		ByteBuffer buffer = ByteBuffer.wrap(source);
+		int end = sourceOffset + byteCount;
+
+		long bitPosition = (long)sourceOffset * BITS_IN_BYTE + bitOffset;
+		int i = offset;
+		int last = offset + length;
+
+		// load a word at a time and pull out every value that lies within
+		// it.  the word starts on the byte holding the next value, so it is
+		// at most 7 bits in, and since width is at most 32 at least one
+		// value always fits
+		while(i < last) {
+			int byteIndex = (int)(bitPosition >>> 3);
+			if(byteIndex + BITS_IN_LONG / BITS_IN_BYTE > end) {
+				break;
+			}
+
+			long word = buffer.getLong(byteIndex);
+			int shift = (int)(bitPosition & 7);
+			int count = Math.min((BITS_IN_LONG - shift) / width, last - i);
+			for(int j = 0; j < count; j++) {
+				values[i++] = (int)((word << shift) >>> (BITS_IN_LONG - width));
+				shift += width;
+			}
+			bitPosition += (long)count * width;
+		}
+
+		// fewer than 8 bytes remain, so assemble the rest a byte at a time
+		int byteIndex = (int)(bitPosition >>> 3);
+		long pending = 0;
+		int pendingBits = 0;
+		if(i < last) {
+			pending = source[byteIndex++] & (0xFF >>> (bitPosition & 7));
+			pendingBits = BITS_IN_BYTE - (int)(bitPosition & 7);
+		}
+		while(i < last) {
+			while(pendingBits < width) {
+				pending = (pending << BITS_IN_BYTE) | (source[byteIndex++] & 0xFF);
+				pendingBits += BITS_IN_BYTE;
+			}
+			pendingBits -= width;
+			values[i++] = (int)(pending >>> pendingBits);
+			pending &= (1L << pendingBits) - 1;
+		}
+	}
+
+	static void checkWidth(int width) {
+		if(width < 1 || width > MAX_WIDTH) {
+			throw new IllegalArgumentException("width must be between 1 and " + MAX_WIDTH + ": " + width);
+		}
+	}
+
+	private static void checkRange(int arrayLength, int offset, int length) {
+		if(offset < 0 || length < 0 || offset + length > arrayLength) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + arrayLength);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.popp.bits;
+
+import org.popp.bits.BitStreamStatistics.Operation;
+import org.popp.bits.BitStreamStatistics.SizeClass;
+
+/**
+ * Counts gathered by a single stream in plain fields, so the stream does not
+ * contend on the shared BitStreamStatistics for every bit and byte.  The
+ * counts are added into the statistics by publish(), which the streams call
+ * on flush and close, and which is also called automatically once
+ * PUBLISH_INTERVAL operations have been recorded.
+ *
+ * Not thread safe, like the streams that own it.
+ */
+final class BitStreamCounters {
+	static final int PUBLISH_INTERVAL = 1024;
+
+	private final BitStreamStatistics statistics;
+
+	final long[] bitsWritten = new long[Operation.values().length];
+	final long[] bitsRead = new long[Operation.values().length];
+	final long[] numbersWritten = new long[SizeClass.values().length];
+	final long[] numbersRead = new long[SizeClass.values().length];
+	long paddingWritten = 0;
+	long paddingRead = 0;
+	long bytesFlushed = 0;
+	long bytesFilled = 0;
+
+	private int unpublished = 0;
+
+	BitStreamCounters(BitStreamStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	void written(Operation operation, long bits) {
+		bitsWritten[operation.ordinal()] += bits;
+		recorded();
+	}
+
+	void read(Operation operation, long bits) {
+		bitsRead[operation.ordinal()] += bits;
+		recorded();
+	}
+
+	void dynamicNumberWritten(SizeClass sizeClass) {
+		++numbersWritten[sizeClass.ordinal()];
+		written(Operation.DYNAMIC_NUMBER, sizeClass.getEncodedBits());
+	}
+
+	void dynamicNumberRead(SizeClass sizeClass) {
+		++numbersRead[sizeClass.ordinal()];
+		read(Operation.DYNAMIC_NUMBER, sizeClass.getEncodedBits());
+	}
+
+	void paddingWritten(int bits) {
+		paddingWritten += bits;
+	}
+
+	void paddingRead(int bits) {
+		paddingRead += bits;
+	}
+
+	void bytesFlushed(int bytes) {
+		bytesFlushed += bytes;
+	}
+
+	void bytesFilled(int bytes) {
+		bytesFilled += bytes;
+	}
+
+	/**
+	 * Adds everything counted since the last publish into the shared
+	 * statistics and starts counting from zero again
+	 */
+	void publish() {
+		if(unpublished == 0 && paddingWritten == 0 && paddingRead == 0 && bytesFlushed == 0 && bytesFilled == 0) {
+			return;
+		}
+
+		statistics.add(this);
+
+		clear(bitsWritten);
+		clear(bitsRead);
+		clear(numbersWritten);
+		clear(numbersRead);
+		paddingWritten = 0;
+		paddingRead = 0;
+		bytesFlushed = 0;
+		bytesFilled = 0;
+		unpublished = 0;
+	}
+
+	private void recorded() {
+		if(++unpublished >= PUBLISH_INTERVAL) {
+			publish();
+		}
+	}
+
+	private static void clear(long[] counts) {
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+}
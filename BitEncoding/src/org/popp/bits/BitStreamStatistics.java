@@ -0,0 +1,173 @@
+package org.popp.bits;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters describing what BitOutputStreams and BitInputStreams are spending
+ * their bits on.  Pass an instance to the stream constructors to enable
+ * collection; streams created without one only pay a null check per
+ * operation.
+ *
+ * A single instance may be shared by any number of streams on any number of
+ * threads.  Each stream counts into its own plain fields and adds them in
+ * here when it is flushed or closed, and every
+ * BitStreamCounters.PUBLISH_INTERVAL operations in between, so the shared
+ * counters are only touched occasionally.  The values seen here therefore
+ * lag slightly behind streams that are still in use.  Bits are attributed to the public operation that was called, so
+ * the bits of the length prefix of a string count towards UTF rather than
+ * DYNAMIC_NUMBER, and padding added by align() is counted separately from
+ * the operation that requested it.
+ */
+public class BitStreamStatistics implements BitStreamStatisticsMXBean {
+	private static final String DOMAIN = "org.popp.bits";
+
+	public enum Operation {
+		BIT, BYTE, DYNAMIC_NUMBER, UTF, FIXED_WIDTH
+	}
+
+	/**
+	 * The ranges writeDynamicNumber chooses between, along with the number
+	 * of bits each takes in the stream
+	 */
+	public enum SizeClass {
+		ZERO(1), ONE(3), BITS_8(12), BITS_16(21), BITS_32(38), BITS_64(70);
+
+		private final int encodedBits;
+
+		private SizeClass(int encodedBits) {
+			this.encodedBits = encodedBits;
+		}
+
+		public int getEncodedBits() {
+			return encodedBits;
+		}
+	}
+
+	private final AtomicLongArray bitsWritten = new AtomicLongArray(Operation.values().length);
+	private final AtomicLongArray bitsRead = new AtomicLongArray(Operation.values().length);
+	private final AtomicLongArray numbersWritten = new AtomicLongArray(SizeClass.values().length);
+	private final AtomicLongArray numbersRead = new AtomicLongArray(SizeClass.values().length);
+	private final AtomicLong paddingWritten = new AtomicLong();
+	private final AtomicLong paddingRead = new AtomicLong();
+	private final AtomicLong bytesFlushed = new AtomicLong();
+	private final AtomicLong bytesFilled = new AtomicLong();
+
+	/**
+	 * Registers these statistics with the platform MBean server under
+	 * org.popp.bits:type=BitStreamStatistics,name=[name] and returns the
+	 * name used.
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(DOMAIN + ":type=BitStreamStatistics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	public long getBitsWritten(Operation operation) {
+		return bitsWritten.get(operation.ordinal());
+	}
+
+	public long getBitsRead(Operation operation) {
+		return bitsRead.get(operation.ordinal());
+	}
+
+	public long getDynamicNumbersWritten(SizeClass sizeClass) {
+		return numbersWritten.get(sizeClass.ordinal());
+	}
+
+	public long getDynamicNumbersRead(SizeClass sizeClass) {
+		return numbersRead.get(sizeClass.ordinal());
+	}
+
+	public Map<String, Long> getBitsWritten() {
+		return byOperation(bitsWritten);
+	}
+
+	public Map<String, Long> getBitsRead() {
+		return byOperation(bitsRead);
+	}
+
+	public Map<String, Long> getDynamicNumbersWritten() {
+		return bySizeClass(numbersWritten);
+	}
+
+	public Map<String, Long> getDynamicNumbersRead() {
+		return bySizeClass(numbersRead);
+	}
+
+	public long getAlignmentPaddingBitsWritten() {
+		return paddingWritten.get();
+	}
+
+	public long getAlignmentPaddingBitsRead() {
+		return paddingRead.get();
+	}
+
+	public long getBytesFlushed() {
+		return bytesFlushed.get();
+	}
+
+	public long getBytesFilled() {
+		return bytesFilled.get();
+	}
+
+	public void reset() {
+		for(int i = 0; i < bitsWritten.length(); i++) {
+			bitsWritten.set(i, 0);
+			bitsRead.set(i, 0);
+		}
+		for(int i = 0; i < numbersWritten.length(); i++) {
+			numbersWritten.set(i, 0);
+			numbersRead.set(i, 0);
+		}
+		paddingWritten.set(0);
+		paddingRead.set(0);
+		bytesFlushed.set(0);
+		bytesFilled.set(0);
+	}
+
+	/**
+	 * Adds in the counts a single stream has gathered since it last published
+	 */
+	void add(BitStreamCounters counters) {
+		add(bitsWritten, counters.bitsWritten);
+		add(bitsRead, counters.bitsRead);
+		add(numbersWritten, counters.numbersWritten);
+		add(numbersRead, counters.numbersRead);
+		paddingWritten.addAndGet(counters.paddingWritten);
+		paddingRead.addAndGet(counters.paddingRead);
+		bytesFlushed.addAndGet(counters.bytesFlushed);
+		bytesFilled.addAndGet(counters.bytesFilled);
+	}
+
+	private static void add(AtomicLongArray totals, long[] counts) {
+		for(int i = 0; i < counts.length; i++) {
+			if(counts[i] != 0) {
+				totals.addAndGet(i, counts[i]);
+			}
+		}
+	}
+
+	private static Map<String, Long> byOperation(AtomicLongArray counters) {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for(Operation operation : Operation.values()) {
+			values.put(operation.name(), counters.get(operation.ordinal()));
+		}
+		return values;
+	}
+
+	private static Map<String, Long> bySizeClass(AtomicLongArray counters) {
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for(SizeClass sizeClass : SizeClass.values()) {
+			values.put(sizeClass.name(), counters.get(sizeClass.ordinal()));
+		}
+		return values;
+	}
+}
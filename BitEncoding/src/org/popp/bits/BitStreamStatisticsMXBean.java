@@ -0,0 +1,55 @@
+package org.popp.bits;
+
+import java.util.Map;
+
+/**
+ * Management interface for BitStreamStatistics.  Register an instance with
+ * BitStreamStatistics.register() to view it in JConsole or any other JMX
+ * client.
+ */
+public interface BitStreamStatisticsMXBean {
+	/**
+	 * Bits written, keyed by operation name
+	 */
+	Map<String, Long> getBitsWritten();
+
+	/**
+	 * Bits read, keyed by operation name
+	 */
+	Map<String, Long> getBitsRead();
+
+	/**
+	 * Count of dynamic numbers written, keyed by size class name
+	 */
+	Map<String, Long> getDynamicNumbersWritten();
+
+	/**
+	 * Count of dynamic numbers read, keyed by size class name
+	 */
+	Map<String, Long> getDynamicNumbersRead();
+
+	/**
+	 * Bits discarded to bring the output stream to a byte boundary
+	 */
+	long getAlignmentPaddingBitsWritten();
+
+	/**
+	 * Bits skipped to bring the input stream to a byte boundary
+	 */
+	long getAlignmentPaddingBitsRead();
+
+	/**
+	 * Bytes handed to the stream wrapped by the output stream
+	 */
+	long getBytesFlushed();
+
+	/**
+	 * Bytes pulled from the stream wrapped by the input stream
+	 */
+	long getBytesFilled();
+
+	/**
+	 * Zeroes all counters
+	 */
+	void reset();
+}
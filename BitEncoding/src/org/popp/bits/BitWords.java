@@ -0,0 +1,96 @@
+package org.popp.bits;
+
+import java.util.BitSet;
+
+/**
+ * Helpers for working with bitmaps held as long[] words.  Bit i of the
+ * bitmap is bit (i % 64) of word (i / 64), the same layout BitSet uses.
+ */
+final class BitWords {
+	static final int BITS_IN_WORD = 64;
+
+	private BitWords() {
+	}
+
+	/**
+	 * Returns the index of the first bit at or after from that is not equal
+	 * to value, or limit if every bit up to limit is equal to value.  limit
+	 * must not exceed the number of bits held in words.
+	 */
+	static long nextDifferentBit(long[] words, long from, long limit, boolean value) {
+		if(from >= limit) {
+			return limit;
+		}
+
+		// flipping the word when looking for ones turns it into a search for zeros
+		long flip = value ? -1L : 0L;
+		int wordIndex = (int)(from >>> 6);
+
+		// shifts only use the low 6 bits of from, masking off bits before it
+		long differing = (words[wordIndex] ^ flip) & (-1L << from);
+		while(differing == 0) {
+			if(++wordIndex == words.length) {
+				return limit;
+			}
+			differing = words[wordIndex] ^ flip;
+		}
+
+		return Math.min(limit, ((long)wordIndex << 6) + Long.numberOfTrailingZeros(differing));
+	}
+
+	/**
+	 * Sets bits from (inclusive) to to (exclusive)
+	 */
+	static void setRange(long[] words, long from, long to) {
+		if(from >= to) {
+			return;
+		}
+
+		int firstWord = (int)(from >>> 6);
+		int lastWord = (int)((to - 1) >>> 6);
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> -to;
+
+		if(firstWord == lastWord) {
+			words[firstWord] |= firstMask & lastMask;
+			return;
+		}
+
+		words[firstWord] |= firstMask;
+		for(int i = firstWord + 1; i < lastWord; i++) {
+			words[i] = -1L;
+		}
+		words[lastWord] |= lastMask;
+	}
+
+	/**
+	 * Returns the words of a BitSet, up to and including its highest set bit
+	 */
+	static long[] fromBitSet(BitSet bits) {
+		long[] words = new long[(bits.length() + BITS_IN_WORD - 1) / BITS_IN_WORD];
+
+		int from = bits.nextSetBit(0);
+		while(from >= 0) {
+			int to = bits.nextClearBit(from);
+			setRange(words, from, to);
+			from = bits.nextSetBit(to);
+		}
+
+		return words;
+	}
+
+	/**
+	 * Sets the bits of a single word into a BitSet, with the word's low bit
+	 * landing at offset
+	 */
+	static void setWord(BitSet bits, int offset, long word) {
+		while(word != 0) {
+			int bit = Long.numberOfTrailingZeros(word);
+			int run = Long.numberOfTrailingZeros(~(word >>> bit));
+			bits.set(offset + bit, offset + bit + run);
+
+			// clear the run we just set; a run can reach the top bit
+			word &= run + bit == BITS_IN_WORD ? 0 : -1L << (bit + run);
+		}
+	}
+}
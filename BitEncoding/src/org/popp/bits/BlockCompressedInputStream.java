@@ -0,0 +1,209 @@
+package org.popp.bits;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the blocks written by a BlockCompressedOutputStream, decompressing
+ * one block at a time as its bytes are needed.  Wrap it in a BitInputStream
+ * to decode a compressed bit stream.
+ *
+ * skipBlock() moves past a whole block without decompressing it.  Any
+ * BitInputStream reading from this stream holds on to a partially read
+ * byte, so create a new BitInputStream after skipping.
+ *
+ * A block header claiming more than maxBlockSize bytes, either before or
+ * after decompression, is rejected with an IOException rather than trusted
+ * with an allocation of that size.  The default allows the blocks written by
+ * a BlockCompressedOutputStream with its default block size; pass a larger
+ * limit when reading blocks written with a larger one.
+ */
+public class BlockCompressedInputStream extends InputStream {
+	static final int DEFAULT_MAX_BLOCK_SIZE = BlockCompressedOutputStream.DEFAULT_BLOCK_SIZE;
+
+	private final DataInputStream is;
+	private final BlockCompressor compressor;
+	private final boolean ownsCompressor;
+	private final int maxBlockSize;
+
+	private byte[] block = new byte[0];
+	private byte[] compressed = new byte[0];
+	private int length = 0;
+	private int position = 0;
+
+	public BlockCompressedInputStream(InputStream is) {
+		this(is, new DeflaterBlockCompressor(), true, DEFAULT_MAX_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a stream that decompresses blocks with the supplied
+	 * compressor, which must match the one the blocks were written with.
+	 * The compressor is not closed when the stream is.
+	 */
+	public BlockCompressedInputStream(InputStream is, BlockCompressor compressor) {
+		this(is, compressor, false, DEFAULT_MAX_BLOCK_SIZE);
+	}
+
+	/**
+	 * As above, but rejecting blocks longer than maxBlockSize bytes rather
+	 * than the default limit
+	 */
+	public BlockCompressedInputStream(InputStream is, BlockCompressor compressor, int maxBlockSize) {
+		this(is, compressor, false, maxBlockSize);
+	}
+
+	private BlockCompressedInputStream(InputStream is, BlockCompressor compressor, boolean ownsCompressor, int maxBlockSize) {
+		if(maxBlockSize <= 0) {
+			throw new IllegalArgumentException("maxBlockSize must be positive: " + maxBlockSize);
+		}
+
+		this.is = new DataInputStream(is);
+		this.maxBlockSize = maxBlockSize;
+		this.compressor = compressor;
+		this.ownsCompressor = ownsCompressor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(position == length && !nextBlock()) {
+			return -1;
+		}
+
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if(len == 0) {
+			return 0;
+		}
+
+		if(position == length && !nextBlock()) {
+			return -1;
+		}
+
+		int toCopy = Math.min(len, length - position);
+		System.arraycopy(block, position, b, off, toCopy);
+		position += toCopy;
+
+		return toCopy;
+	}
+
+	/**
+	 * Returns the number of bytes left in the current block
+	 */
+	@Override
+	public int available() {
+		return length - position;
+	}
+
+	/**
+	 * Discards the rest of the current block, then skips the following block
+	 * without decompressing it.  Returns false if there was no block left
+	 * to skip.
+	 */
+	public boolean skipBlock() throws IOException {
+		position = length;
+
+		int method = is.read();
+		if(method == -1) {
+			return false;
+		}
+
+		is.readInt(); // decompressed length isn't needed
+		int storedLength = readStoredLength(method);
+
+		while(storedLength > 0) {
+			int skipped = is.skipBytes(storedLength);
+			if(skipped == 0) {
+				// skipBytes gives up at the end of the stream, read to find out
+				if(is.read() == -1) {
+					throw new EOFException("Block truncated");
+				}
+				skipped = 1;
+			}
+			storedLength -= skipped;
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			is.close();
+		} finally {
+			if(ownsCompressor) {
+				compressor.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads and decompresses blocks until one holding at least one byte is
+	 * found.  Returns false at the end of the stream.
+	 */
+	private boolean nextBlock() throws IOException {
+		// an empty block is legal, move on to the one after it
+		do {
+			if(!readBlock()) {
+				return false;
+			}
+		} while(length == 0);
+
+		return true;
+	}
+
+	/**
+	 * Reads and decompresses the next block, which may be empty.  Returns
+	 * false at the end of the stream.
+	 */
+	private boolean readBlock() throws IOException {
+		int method = is.read();
+		if(method == -1) {
+			return false;
+		}
+
+		int blockLength = is.readInt();
+		int storedLength = readStoredLength(method);
+		if(blockLength < 0 || blockLength > maxBlockSize || (method == BlockCompressedOutputStream.STORED && blockLength != storedLength)) {
+			throw new IOException("Invalid block length: " + blockLength);
+		}
+
+		if(block.length < blockLength) {
+			block = new byte[blockLength];
+		}
+
+		if(method == BlockCompressedOutputStream.STORED) {
+			is.readFully(block, 0, blockLength);
+		} else {
+			if(compressed.length < storedLength) {
+				compressed = new byte[storedLength];
+			}
+			is.readFully(compressed, 0, storedLength);
+			compressor.decompress(compressed, 0, storedLength, block, blockLength);
+		}
+
+		length = blockLength;
+		position = 0;
+
+		return true;
+	}
+
+	private int readStoredLength(int method) throws IOException {
+		if(method != BlockCompressedOutputStream.STORED && method != BlockCompressedOutputStream.COMPRESSED) {
+			throw new IOException("Unknown block method: " + method);
+		}
+
+		int storedLength = is.readInt();
+		if(storedLength < 0 || storedLength > maxBlockSize) {
+			throw new IOException("Invalid stored block length: " + storedLength);
+		}
+		return storedLength;
+	}
+}
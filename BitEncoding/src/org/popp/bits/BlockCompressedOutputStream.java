@@ -0,0 +1,145 @@
+package org.popp.bits;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that cuts the data written to it into blocks and
+ * compresses each block independently.  Wrap it in a BitOutputStream to
+ * compress a bit stream:
+ *
+ * BlockCompressedOutputStream blocks = new BlockCompressedOutputStream(fileStream);
+ * BitOutputStream bos = new BitOutputStream(blocks);
+ *
+ * Each block is written as a header followed by the block's bytes:
+ *
+ * 1 byte --> 0 if the block is stored uncompressed, 1 if it is compressed
+ * 4 bytes --> length of the block once decompressed
+ * 4 bytes --> length of the bytes that follow
+ *
+ * A block is cut whenever blockSize bytes have been buffered, and whenever
+ * endBlock(), flush() or close() is called.  Because blocks are compressed
+ * independently, a BlockCompressedInputStream can skip whole blocks without
+ * decompressing them.  To be able to start decoding at a block boundary, call
+ * align() on the BitOutputStream followed by endBlock() here, so the block
+ * begins with the first bit of your next record.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+	static final int STORED = 0;
+	static final int COMPRESSED = 1;
+
+	static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	private final DataOutputStream os;
+	private final BlockCompressor compressor;
+	private final boolean ownsCompressor;
+
+	private final byte[] block;
+	private final byte[] compressed;
+	private int length = 0;
+
+	public BlockCompressedOutputStream(OutputStream os) {
+		this(os, DEFAULT_BLOCK_SIZE, new DeflaterBlockCompressor(), true);
+	}
+
+	/**
+	 * Creates a stream that compresses blocks with the supplied compressor.
+	 * The compressor is not closed when the stream is.
+	 */
+	public BlockCompressedOutputStream(OutputStream os, int blockSize, BlockCompressor compressor) {
+		this(os, blockSize, compressor, false);
+	}
+
+	private BlockCompressedOutputStream(OutputStream os, int blockSize, BlockCompressor compressor, boolean ownsCompressor) {
+		if(blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		}
+
+		this.os = new DataOutputStream(os);
+		this.compressor = compressor;
+		this.ownsCompressor = ownsCompressor;
+		this.block = new byte[blockSize];
+		this.compressed = new byte[blockSize];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(length == block.length) {
+			endBlock();
+		}
+
+		block[length++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+
+		while(len > 0) {
+			if(length == block.length) {
+				endBlock();
+			}
+
+			int toCopy = Math.min(len, block.length - length);
+			System.arraycopy(b, off, block, length, toCopy);
+			length += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	/**
+	 * Compresses and writes out the bytes buffered so far as a block.  The
+	 * next byte written will start a new block.  Does nothing if no bytes
+	 * are buffered.
+	 */
+	public void endBlock() throws IOException {
+		if(length == 0) {
+			return;
+		}
+
+		int compressedLength = compressor.compress(block, 0, length, compressed);
+
+		// only keep the compressed form when it actually saves space
+		if(compressedLength >= 0 && compressedLength < length) {
+			os.writeByte(COMPRESSED);
+			os.writeInt(length);
+			os.writeInt(compressedLength);
+			os.write(compressed, 0, compressedLength);
+		} else {
+			os.writeByte(STORED);
+			os.writeInt(length);
+			os.writeInt(length);
+			os.write(block, 0, length);
+		}
+
+		length = 0;
+	}
+
+	/**
+	 * Ends the current block and flushes the underlying stream
+	 */
+	@Override
+	public void flush() throws IOException {
+		endBlock();
+		os.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			endBlock();
+		} finally {
+			try {
+				os.close();
+			} finally {
+				if(ownsCompressor) {
+					compressor.close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package org.popp.bits;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses the blocks written by a
+ * BlockCompressedOutputStream.  Implementations need not be thread safe;
+ * each stream uses its own instance.
+ *
+ * close() releases any native resources the compressor holds.  A stream
+ * closes a compressor it created itself; one passed in by the caller is
+ * left for the caller to close.
+ */
+public interface BlockCompressor extends Closeable {
+	/**
+	 * Compresses length bytes of data starting at offset into destination.
+	 * Returns the number of compressed bytes, or -1 if the compressed form
+	 * would not fit in destination, in which case the block is stored
+	 * uncompressed.
+	 */
+	int compress(byte[] data, int offset, int length, byte[] destination) throws IOException;
+
+	/**
+	 * Decompresses length bytes of data starting at offset, filling exactly
+	 * the first destinationLength bytes of destination.
+	 */
+	void decompress(byte[] data, int offset, int length, byte[] destination, int destinationLength) throws IOException;
+}
@@ -0,0 +1,176 @@
+package org.popp.bits;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends bit encoded records from many threads to a single file without a
+ * global lock.
+ *
+ * Each thread encodes its record into its own thread-local buffer through
+ * a BitOutputStream.  The finished record is then framed, byte-aligned space
+ * for it is reserved in the file with an atomic add on the end position, and
+ * the frame is written at the reserved position.  Threads only contend on
+ * that single atomic add, and because a thread reserves space for its
+ * records in the order it appends them, records from the same thread appear
+ * in the file in that order.  Records from different threads interleave.
+ *
+ * Each record is framed as:
+ *
+ * 1 --> marker bit indicating a record is present
+ * dynamic number --> length of the record in bytes (see BitOutputStream.writeDynamicNumber)
+ * padding to the next byte boundary
+ * the record bytes
+ *
+ * Space that has been reserved but not yet written reads back as zeros, so
+ * readRecord() treats a 0 marker bit the same as the end of the log.  If
+ * writing a frame to the channel fails, its reserved space is left as zeros
+ * for good, and records appended after it can no longer be reached by
+ * readRecord().  Treat an IOException from append() as fatal to the log.
+ *
+ * FileChannel closes itself when a thread blocked on it is interrupted, which
+ * would fail every other producer with a ClosedChannelException and leave a
+ * hole.  append() clears the calling thread's interrupt status for the
+ * duration of the write and restores it afterwards, so a producer that was
+ * interrupted before or while encoding still appends safely.  An interrupt
+ * delivered while the write itself is in progress cannot be stopped from
+ * closing the channel, so do not interrupt producers that may be inside
+ * append(), for example with ExecutorService.shutdownNow().
+ */
+public class ConcurrentBitLogAppender implements Closeable {
+	private final FileChannel channel;
+	private final AtomicLong position;
+
+	private final ThreadLocal<RecordBuffers> buffers = new ThreadLocal<RecordBuffers>() {
+		@Override
+		protected RecordBuffers initialValue() {
+			return new RecordBuffers();
+		}
+	};
+
+	/**
+	 * A record to be appended to the log.  writeTo() is called on the
+	 * appending thread with a stream private to that thread.
+	 */
+	public interface Record {
+		void writeTo(BitOutputStream os) throws IOException;
+	}
+
+	/**
+	 * Creates an appender that writes records starting at the channel's
+	 * current size.
+	 */
+	public ConcurrentBitLogAppender(FileChannel channel) throws IOException {
+		this(channel, channel.size());
+	}
+
+	public ConcurrentBitLogAppender(FileChannel channel, long startPosition) {
+		this.channel = channel;
+		this.position = new AtomicLong(startPosition);
+	}
+
+	/**
+	 * Encodes the record on the calling thread and writes it to the log.
+	 * The record is fully written to the channel when this returns.  If
+	 * the record throws while encoding, nothing is written and the thread's
+	 * next record is unaffected.  If the write to the channel fails, the
+	 * log is left with a hole; see the class comment.
+	 */
+	public void append(Record record) throws IOException {
+		RecordBuffers buffers = this.buffers.get();
+
+		// fresh streams each time, so bits left behind by a record that
+		// threw part way through never leak into the next one
+		buffers.record.reset();
+		BitOutputStream recordStream = new BitOutputStream(buffers.record);
+		record.writeTo(recordStream);
+		recordStream.flush();
+
+		buffers.frame.reset();
+		BitOutputStream frameStream = new BitOutputStream(buffers.frame);
+		frameStream.writeBit(1);
+		frameStream.writeDynamicNumber(buffers.record.size());
+		frameStream.align();
+		buffers.record.writeTo(buffers.frame);
+
+		ByteBuffer frame = buffers.frame.toByteBuffer();
+
+		// reserve our space, then write into it without holding any lock
+		long offset = position.getAndAdd(frame.remaining());
+
+		// a pending interrupt would close the channel for every producer
+		boolean interrupted = Thread.interrupted();
+		try {
+			while(frame.hasRemaining()) {
+				offset += channel.write(frame, offset);
+			}
+		} finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the position one past the last byte reserved so far.  Records
+	 * still being written by other threads may end before this position.
+	 */
+	public long size() {
+		return position.get();
+	}
+
+	/**
+	 * Closes the underlying channel.  Callers must ensure no appends are
+	 * still in progress.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads the next record framed by an appender.  Returns null when the
+	 * end of the log, or space that has not been written yet, is reached.
+	 */
+	public static byte[] readRecord(BitInputStream is) throws IOException {
+		if(is.readBit() != 1) {
+			return null;
+		}
+
+		int length = (int)is.readDynamicNumber();
+		if(length > 0) {
+			is.align();
+		}
+
+		byte[] data = new byte[length];
+		for(int i = 0; i < data.length; i++) {
+			int b = is.read();
+			if(b == -1) {
+				throw new IOException("Insufficient data remaining to read record");
+			}
+			data[i] = (byte)b;
+		}
+
+		// the next frame starts on a byte boundary
+		is.align();
+
+		return data;
+	}
+
+	private static class RecordBuffers {
+		private final ExposedByteArrayOutputStream record = new ExposedByteArrayOutputStream();
+		private final ExposedByteArrayOutputStream frame = new ExposedByteArrayOutputStream();
+	}
+
+	/**
+	 * Lets the frame be handed to the channel without copying it out.
+	 */
+	private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.popp.bits;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A BlockCompressor backed by java.util.zip.  The Deflater and Inflater are
+ * created on first use and reused between blocks, so an instance must not
+ * be shared between streams.  close() ends them, freeing their native
+ * memory without waiting on garbage collection.
+ */
+public class DeflaterBlockCompressor implements BlockCompressor {
+	private final int level;
+
+	private Deflater deflater;
+	private Inflater inflater;
+
+	public DeflaterBlockCompressor() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a compressor using the given Deflater compression level
+	 * (0-9, or Deflater.DEFAULT_COMPRESSION)
+	 */
+	public DeflaterBlockCompressor(int level) {
+		this.level = level;
+	}
+
+	public int compress(byte[] data, int offset, int length, byte[] destination) throws IOException {
+		if(deflater == null) {
+			deflater = new Deflater(level, true);
+		} else {
+			deflater.reset();
+		}
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+
+		int compressedLength = 0;
+		while(!deflater.finished()) {
+			if(compressedLength == destination.length) {
+				return -1; // didn't fit, so isn't worth compressing
+			}
+			compressedLength += deflater.deflate(destination, compressedLength, destination.length - compressedLength);
+		}
+
+		return compressedLength;
+	}
+
+	public void decompress(byte[] data, int offset, int length, byte[] destination, int destinationLength) throws IOException {
+		if(inflater == null) {
+			inflater = new Inflater(true);
+		} else {
+			inflater.reset();
+		}
+		inflater.setInput(data, offset, length);
+
+		try {
+			int decompressedLength = 0;
+			while(decompressedLength < destinationLength) {
+				int inflated = inflater.inflate(destination, decompressedLength, destinationLength - decompressedLength);
+				if(inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Compressed block ended after " + decompressedLength + " of " + destinationLength + " bytes");
+				}
+				decompressedLength += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed block", e);
+		}
+	}
+
+	/**
+	 * Ends the Deflater and Inflater.  The compressor may still be used
+	 * afterwards, in which case new ones are created.
+	 */
+	public void close() {
+		if(deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		if(inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package org.popp.bits;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * A compressed bitmap that stores runs of all-zero or all-one words as a
+ * count and every other word verbatim, in the style of EWAH.  Long runs cost
+ * almost nothing while noisy regions cost no more than the raw words, and
+ * and() and or() work directly on the compressed form, a run at a time where
+ * either side is a run.
+ *
+ * The bitmap is held as a sequence of markers, each followed by its literal
+ * words.  A marker is a single long:
+ *
+ * bit 0 --> value of the run
+ * bits 1-32 --> number of words in the run
+ * bits 33-63 --> number of literal words following the marker
+ *
+ * In a stream, a bitmap is represented as:
+ *
+ * dynamic number --> number of words in the bitmap
+ * for each marker:
+ * 1 bit --> value of the run
+ * dynamic number --> number of words in the run
+ * dynamic number --> number of literal words
+ * 8 bytes per literal word, high byte first
+ *
+ * HybridBitmaps are immutable.
+ */
+public class HybridBitmap {
+	private static final long MAX_RUN_LENGTH = (1L << 32) - 1;
+	private static final int MAX_LITERAL_COUNT = Integer.MAX_VALUE;
+	private static final int LITERAL_COUNT_SHIFT = 33;
+
+	private long[] buffer = new long[4];
+	private int size = 1;
+
+	// index of the marker words are currently being added to
+	private int marker = 0;
+
+	private long wordCount = 0;
+
+	private HybridBitmap() {
+	}
+
+	public HybridBitmap(long[] words) {
+		for(long word : words) {
+			addLiteral(word);
+		}
+	}
+
+	/**
+	 * Creates a bitmap of the bits of a BitSet up to and including its
+	 * highest set bit
+	 */
+	public HybridBitmap(BitSet bits) {
+		this(BitWords.fromBitSet(bits));
+	}
+
+	/**
+	 * Returns the number of 64 bit words this bitmap spans
+	 */
+	public long getWordCount() {
+		return wordCount;
+	}
+
+	/**
+	 * Returns the number of set bits
+	 */
+	public long cardinality() {
+		long cardinality = 0;
+
+		int index = 0;
+		while(index < size) {
+			long m = buffer[index];
+			if(runBit(m)) {
+				cardinality += runLength(m) * BitWords.BITS_IN_WORD;
+			}
+
+			int literals = literalCount(m);
+			for(int i = 1; i <= literals; i++) {
+				cardinality += Long.bitCount(buffer[index + i]);
+			}
+			index += literals + 1;
+		}
+
+		return cardinality;
+	}
+
+	public long[] toWords() {
+		if(wordCount > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Bitmap too large for long[]: " + wordCount + " words");
+		}
+
+		long[] words = new long[(int)wordCount];
+
+		int position = 0;
+		int index = 0;
+		while(index < size) {
+			long m = buffer[index];
+			int run = (int)runLength(m);
+			if(runBit(m)) {
+				for(int i = position; i < position + run; i++) {
+					words[i] = -1L;
+				}
+			}
+			position += run;
+
+			int literals = literalCount(m);
+			System.arraycopy(buffer, index + 1, words, position, literals);
+			position += literals;
+			index += literals + 1;
+		}
+
+		return words;
+	}
+
+	public BitSet toBitSet() {
+		if(wordCount * BitWords.BITS_IN_WORD > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Bitmap too large for BitSet: " + wordCount + " words");
+		}
+
+		BitSet bits = new BitSet();
+
+		int position = 0;
+		int index = 0;
+		while(index < size) {
+			long m = buffer[index];
+			int run = (int)runLength(m) * BitWords.BITS_IN_WORD;
+			if(runBit(m)) {
+				bits.set(position, position + run);
+			}
+			position += run;
+
+			int literals = literalCount(m);
+			for(int i = 1; i <= literals; i++) {
+				BitWords.setWord(bits, position, buffer[index + i]);
+				position += BitWords.BITS_IN_WORD;
+			}
+			index += literals + 1;
+		}
+
+		return bits;
+	}
+
+	/**
+	 * Returns the intersection of this bitmap and other.  The shorter bitmap
+	 * is treated as if padded with zeros.
+	 */
+	public HybridBitmap and(HybridBitmap other) {
+		return merge(this, other, true);
+	}
+
+	/**
+	 * Returns the union of this bitmap and other
+	 */
+	public HybridBitmap or(HybridBitmap other) {
+		return merge(this, other, false);
+	}
+
+	public void write(BitOutputStream os) throws IOException {
+		os.writeDynamicNumber(wordCount);
+
+		int index = 0;
+		while(index < size) {
+			long m = buffer[index];
+			int literals = literalCount(m);
+
+			// the first marker may be empty, it carries nothing worth writing
+			if(runLength(m) > 0 || literals > 0) {
+				os.writeBoolean(runBit(m));
+				os.writeDynamicNumber(runLength(m));
+				os.writeDynamicNumber(literals);
+				for(int i = 1; i <= literals; i++) {
+					long word = buffer[index + i];
+					for(int shift = 56; shift >= 0; shift -= 8) {
+						os.write((int)(word >>> shift));
+					}
+				}
+			}
+			index += literals + 1;
+		}
+	}
+
+	public static HybridBitmap read(BitInputStream is) throws IOException {
+		long wordCount = is.readDynamicNumber();
+		if(wordCount < 0) {
+			throw new IOException("Invalid bitmap length: " + wordCount);
+		}
+
+		HybridBitmap bitmap = new HybridBitmap();
+		while(bitmap.wordCount < wordCount) {
+			int bit = is.readBit();
+			if(bit == -1) {
+				throw new EOFException("Bitmap truncated");
+			}
+
+			long run = is.readDynamicNumber();
+			long literals = is.readDynamicNumber();
+			if(run < 0 || literals < 0 || run + literals == 0 || run + literals > wordCount - bitmap.wordCount) {
+				throw new IOException("Invalid marker with run " + run + " and " + literals + " literals");
+			}
+
+			bitmap.addClean(bit == 1, run);
+			for(long i = 0; i < literals; i++) {
+				long word = 0;
+				for(int b = 0; b < 8; b++) {
+					int value = is.read();
+					if(value == -1) {
+						throw new EOFException("Bitmap truncated");
+					}
+					word = (word << 8) | value;
+				}
+				bitmap.addLiteral(word);
+			}
+		}
+
+		return bitmap;
+	}
+
+	private static HybridBitmap merge(HybridBitmap a, HybridBitmap b, boolean and) {
+		HybridBitmap result = new HybridBitmap();
+		Cursor x = new Cursor(a);
+		Cursor y = new Cursor(b);
+
+		long remaining = Math.max(a.wordCount, b.wordCount);
+		while(remaining > 0) {
+			long n;
+
+			if(x.runRemaining > 0 && y.runRemaining > 0) {
+				// both sides are in a run, so the result is a run
+				n = Math.min(remaining, Math.min(x.runRemaining, y.runRemaining));
+				result.addClean(and ? x.runBit & y.runBit : x.runBit | y.runBit, n);
+			} else if(x.runRemaining > 0 || y.runRemaining > 0) {
+				Cursor run = x.runRemaining > 0 ? x : y;
+				Cursor literal = run == x ? y : x;
+				n = Math.min(remaining, Math.min(run.runRemaining, literal.literalsRemaining));
+
+				if(run.runBit == and) {
+					// anding with ones or oring with zeros leaves the literals as is
+					for(int i = 0; i < n; i++) {
+						result.addLiteral(literal.literal(i));
+					}
+				} else {
+					// anding with zeros or oring with ones gives the run itself
+					result.addClean(run.runBit, n);
+				}
+			} else {
+				n = Math.min(remaining, Math.min(x.literalsRemaining, y.literalsRemaining));
+				for(int i = 0; i < n; i++) {
+					result.addLiteral(and ? x.literal(i) & y.literal(i) : x.literal(i) | y.literal(i));
+				}
+			}
+
+			x.skip(n);
+			y.skip(n);
+			remaining -= n;
+		}
+
+		return result;
+	}
+
+	private void addClean(boolean bit, long count) {
+		wordCount += count;
+
+		while(count > 0) {
+			long m = buffer[marker];
+			if(literalCount(m) > 0 || (runLength(m) > 0 && runBit(m) != bit) || runLength(m) == MAX_RUN_LENGTH) {
+				newMarker();
+				m = 0;
+			}
+
+			long n = Math.min(count, MAX_RUN_LENGTH - runLength(m));
+			buffer[marker] = marker(bit, runLength(m) + n, 0);
+			count -= n;
+		}
+	}
+
+	private void addLiteral(long word) {
+		if(word == 0) {
+			addClean(false, 1);
+			return;
+		}
+		if(word == -1L) {
+			addClean(true, 1);
+			return;
+		}
+
+		if(literalCount(buffer[marker]) == MAX_LITERAL_COUNT) {
+			newMarker();
+		}
+
+		append(word);
+		buffer[marker] += 1L << LITERAL_COUNT_SHIFT;
+		++wordCount;
+	}
+
+	private void newMarker() {
+		marker = size;
+		append(0L);
+	}
+
+	private void append(long word) {
+		if(size == buffer.length) {
+			long[] grown = new long[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, size);
+			buffer = grown;
+		}
+		buffer[size++] = word;
+	}
+
+	private static long marker(boolean runBit, long runLength, int literalCount) {
+		return (runBit ? 1L : 0L) | (runLength << 1) | ((long)literalCount << LITERAL_COUNT_SHIFT);
+	}
+
+	private static boolean runBit(long marker) {
+		return (marker & 1) != 0;
+	}
+
+	private static long runLength(long marker) {
+		return (marker >>> 1) & MAX_RUN_LENGTH;
+	}
+
+	private static int literalCount(long marker) {
+		return (int)(marker >>> LITERAL_COUNT_SHIFT);
+	}
+
+	/**
+	 * Walks a bitmap a run or a group of literals at a time.  Past the end
+	 * of the bitmap it reports an endless run of zeros.
+	 */
+	private static class Cursor {
+		private final HybridBitmap bitmap;
+
+		private long runRemaining;
+		private boolean runBit;
+		private int literalsRemaining;
+
+		// index of the next literal word, and then of the next marker
+		private int position;
+
+		Cursor(HybridBitmap bitmap) {
+			this.bitmap = bitmap;
+			this.position = 0;
+			nextMarker();
+		}
+
+		long literal(int i) {
+			return bitmap.buffer[position + i];
+		}
+
+		/**
+		 * Moves past n words, which must not run past the current run or
+		 * group of literals
+		 */
+		void skip(long n) {
+			if(runRemaining > 0) {
+				if(runRemaining != Long.MAX_VALUE) {
+					runRemaining -= n;
+				}
+			} else {
+				position += (int)n;
+				literalsRemaining -= (int)n;
+			}
+
+			if(runRemaining == 0 && literalsRemaining == 0) {
+				nextMarker();
+			}
+		}
+
+		private void nextMarker() {
+			while(position < bitmap.size) {
+				long m = bitmap.buffer[position++];
+				runBit = runBit(m);
+				runRemaining = runLength(m);
+				literalsRemaining = literalCount(m);
+
+				if(runRemaining > 0 || literalsRemaining > 0) {
+					return;
+				}
+			}
+
+			runBit = false;
+			runRemaining = Long.MAX_VALUE;
+			literalsRemaining = 0;
+		}
+	}
+}
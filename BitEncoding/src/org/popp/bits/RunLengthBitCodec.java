@@ -0,0 +1,146 @@
+package org.popp.bits;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Writes bitmaps as alternating runs of zeros and ones rather than one bit
+ * at a time, which is far smaller for bitmaps made up of long runs.
+ *
+ * A bitmap is represented in the stream as:
+ *
+ * dynamic number --> number of bits in the bitmap
+ * 1 bit --> value of the first bit (omitted for an empty bitmap)
+ * dynamic numbers --> lengths of each run, alternating between runs of the
+ * first bit's value and runs of the other value, until the lengths add up
+ * to the number of bits
+ *
+ * See BitOutputStream.writeDynamicNumber for how the numbers are encoded.
+ * Runs are found and filled a word at a time rather than a bit at a time.
+ * Every word of the bitmap is still visited, so encoding time grows with the
+ * size of the bitmap, while the encoded size depends only on the number of
+ * runs.
+ *
+ * For bitmaps that mix long runs with noisy regions, HybridBitmap stores
+ * the noisy words verbatim instead.
+ */
+public final class RunLengthBitCodec {
+	private RunLengthBitCodec() {
+	}
+
+	/**
+	 * Writes every bit of the supplied words
+	 */
+	public static void write(BitOutputStream os, long[] words) throws IOException {
+		write(os, words, (long)words.length * BitWords.BITS_IN_WORD);
+	}
+
+	/**
+	 * Writes the bits of a BitSet up to and including its highest set bit
+	 */
+	public static void write(BitOutputStream os, BitSet bits) throws IOException {
+		write(os, BitWords.fromBitSet(bits), bits.length());
+	}
+
+	/**
+	 * Reads a bitmap, returning it as words.  Bits past the length written
+	 * in the final word are zero.
+	 */
+	public static long[] readWords(BitInputStream is) throws IOException {
+		long bitLength = readBitLength(is);
+		if(bitLength > (long)Integer.MAX_VALUE * BitWords.BITS_IN_WORD) {
+			throw new IOException("Bitmap too large for long[]: " + bitLength + " bits");
+		}
+
+		long[] words = new long[(int)((bitLength + BitWords.BITS_IN_WORD - 1) / BitWords.BITS_IN_WORD)];
+		if(bitLength == 0) {
+			return words;
+		}
+
+		boolean value = readFirstBit(is);
+		long position = 0;
+		while(position < bitLength) {
+			long run = readRunLength(is, bitLength - position);
+			if(value) {
+				BitWords.setRange(words, position, position + run);
+			}
+			position += run;
+			value = !value;
+		}
+
+		return words;
+	}
+
+	/**
+	 * Reads a bitmap, returning it as a BitSet
+	 */
+	public static BitSet readBitSet(BitInputStream is) throws IOException {
+		long bitLength = readBitLength(is);
+		if(bitLength > Integer.MAX_VALUE) {
+			throw new IOException("Bitmap too large for BitSet: " + bitLength + " bits");
+		}
+
+		// grown as runs are set, rather than sized up front from a length
+		// that has not been checked against the data that follows
+		BitSet bits = new BitSet();
+		if(bitLength == 0) {
+			return bits;
+		}
+
+		boolean value = readFirstBit(is);
+		int position = 0;
+		while(position < bitLength) {
+			int run = (int)readRunLength(is, bitLength - position);
+			if(value) {
+				bits.set(position, position + run);
+			}
+			position += run;
+			value = !value;
+		}
+
+		return bits;
+	}
+
+	private static void write(BitOutputStream os, long[] words, long bitLength) throws IOException {
+		os.writeDynamicNumber(bitLength);
+		if(bitLength == 0) {
+			return;
+		}
+
+		boolean value = (words[0] & 1) != 0;
+		os.writeBoolean(value);
+
+		long position = 0;
+		while(position < bitLength) {
+			long runEnd = BitWords.nextDifferentBit(words, position, bitLength, value);
+			os.writeDynamicNumber(runEnd - position);
+			position = runEnd;
+			value = !value;
+		}
+	}
+
+	private static long readBitLength(BitInputStream is) throws IOException {
+		long bitLength = is.readDynamicNumber();
+		if(bitLength < 0) {
+			throw new IOException("Invalid bitmap length: " + bitLength);
+		}
+		return bitLength;
+	}
+
+	private static boolean readFirstBit(BitInputStream is) throws IOException {
+		int bit = is.readBit();
+		if(bit == -1) {
+			throw new EOFException("Bitmap truncated");
+		}
+		return bit == 1;
+	}
+
+	private static long readRunLength(BitInputStream is, long bitsRemaining) throws IOException {
+		long run = is.readDynamicNumber();
+		if(run <= 0 || run > bitsRemaining) {
+			throw new IOException("Invalid run length " + run + " with " + bitsRemaining + " bits remaining");
+		}
+		return run;
+	}
+}
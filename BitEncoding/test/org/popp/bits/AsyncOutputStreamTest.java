@@ -0,0 +1,220 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class AsyncOutputStreamTest {
+
+	@Test
+	public void testWrite() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AsyncOutputStream aos = new AsyncOutputStream(baos, 4, 2);
+
+		// a partial buffer stays with the writer until flushed
+		aos.write(1);
+		aos.write(2);
+		aos.flush();
+		Assert.assertEquals(2, baos.size());
+
+		// write more than several buffers worth in one call
+		byte[] data = new byte[37];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (byte)i;
+		}
+		aos.write(data);
+		aos.close();
+
+		byte[] written = baos.toByteArray();
+		Assert.assertEquals(2 + data.length, written.length);
+		Assert.assertEquals(1, written[0]);
+		Assert.assertEquals(2, written[1]);
+		for(int i = 0; i < data.length; i++) {
+			Assert.assertEquals(data[i], written[i + 2]);
+		}
+	}
+
+	@Test
+	public void testRandomNumberAssortment() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		long[] numbers = new long[10000];
+		for(int i = 0; i < numbers.length; i++) {
+			numbers[i] = r.nextBoolean() ? r.nextInt(512) - 256 : r.nextLong();
+		}
+
+		// write through a slow sink with small buffers so the writer
+		// is regularly held up waiting on the drain thread
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(new AsyncOutputStream(new SlowOutputStream(baos), 16, 2));
+		for(long number : numbers) {
+			bos.writeDynamicNumber(number);
+		}
+		bos.flush();
+		bos.close();
+
+		BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		for(long number : numbers) {
+			Assert.assertEquals("Failed with seed: " + seed, number, bis.readDynamicNumber());
+		}
+	}
+
+	@Test
+	public void testFailurePropagates() throws IOException {
+		// fits in a single buffer, so the failure is first seen by flush
+		AsyncOutputStream aos = new AsyncOutputStream(new FailingOutputStream(), 4, 1);
+		aos.write(new byte[4]);
+		try {
+			aos.flush();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+
+		try {
+			aos.write(0);
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+
+		try {
+			aos.close();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testUncheckedFailurePropagates() throws IOException {
+		AsyncOutputStream aos = new AsyncOutputStream(new UncheckedFailingOutputStream(), 4, 1);
+
+		// more buffers than the queue holds, so the writer relies on the
+		// drain thread recycling them after the failure
+		try {
+			aos.write(new byte[64]);
+			aos.flush();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+		}
+
+		try {
+			aos.close();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testCloseWhenInterrupted() throws IOException {
+		SleepingOutputStream sink = new SleepingOutputStream();
+		AsyncOutputStream aos = new AsyncOutputStream(sink, 4, 2);
+
+		// queue up buffers the sink will take a while to write
+		aos.write(new byte[12]);
+
+		Thread.currentThread().interrupt();
+		try {
+			aos.close();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {
+			// the flush failure is reported, not something from the shutdown
+			Assert.assertTrue(e instanceof InterruptedIOException);
+		} finally {
+			// close() restores the interrupt it was given
+			Assert.assertTrue(Thread.interrupted());
+		}
+
+		// the sink was closed only after every queued write had finished
+		Assert.assertTrue(sink.closed);
+		Assert.assertFalse(sink.closedDuringWrite);
+		Assert.assertEquals(0, sink.writesInProgress);
+
+		try {
+			aos.write(0);
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testWriteAfterClose() throws IOException {
+		AsyncOutputStream aos = new AsyncOutputStream(new ByteArrayOutputStream());
+		aos.close();
+		aos.close(); // closing twice is harmless
+
+		try {
+			aos.write(0);
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	private static class SlowOutputStream extends OutputStream {
+		private final OutputStream os;
+
+		SlowOutputStream(OutputStream os) {
+			this.os = os;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			os.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			Thread.yield();
+			os.write(b, off, len);
+		}
+	}
+
+	private static class SleepingOutputStream extends OutputStream {
+		private volatile int writesInProgress = 0;
+		private volatile boolean closed = false;
+		private volatile boolean closedDuringWrite = false;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			++writesInProgress;
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} finally {
+				--writesInProgress;
+			}
+			if(closed) {
+				throw new IOException("Write after close");
+			}
+		}
+
+		@Override
+		public void close() {
+			if(writesInProgress > 0) {
+				closedDuringWrite = true;
+			}
+			closed = true;
+		}
+	}
+
+	private static class UncheckedFailingOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+			throw new IllegalStateException("Sink failure");
+		}
+	}
+
+	private static class FailingOutputStream extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			throw new IOException("Sink failure");
+		}
+	}
+}
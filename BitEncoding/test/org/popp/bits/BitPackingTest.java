@@ -0,0 +1,200 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BitPackingTest {
+
+	@Test
+	public void testPackMatchesWriteBits() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		for(int width = 1; width <= 32; width++) {
+			for(int iteration = 0; iteration < 20; iteration++) {
+				int[] values = randomValues(r, r.nextInt(100));
+
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				BitOutputStream bos = new BitOutputStream(baos);
+				for(int value : values) {
+					bos.writeBits(value, width);
+				}
+				bos.flush();
+				byte[] expected = baos.toByteArray();
+
+				byte[] packed = new byte[BitPacking.packedLength(width, values.length)];
+				BitPacking.pack(values, 0, values.length, width, packed, 0);
+
+				String message = "Failed with seed: " + seed + " width: " + width;
+				Assert.assertEquals(message, expected.length, packed.length);
+				for(int i = 0; i < packed.length; i++) {
+					Assert.assertEquals(message, expected[i], packed[i]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUnpackMatchesReadBits() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		for(int width = 1; width <= 32; width++) {
+			for(int iteration = 0; iteration < 20; iteration++) {
+				int count = r.nextInt(100);
+				byte[] packed = new byte[3 + BitPacking.packedLength(width, count)];
+				r.nextBytes(packed);
+
+				// unpack from an offset into the array to exercise the bounds
+				int[] values = new int[count + 2];
+				BitPacking.unpack(packed, 3, width, values, 1, count);
+
+				BitInputStream bis = new BitInputStream(new ByteArrayInputStream(packed, 3, packed.length - 3));
+				String message = "Failed with seed: " + seed + " width: " + width;
+				for(int i = 0; i < count; i++) {
+					Assert.assertEquals(message, (int)bis.readBits(width), values[i + 1]);
+				}
+				Assert.assertEquals(0, values[0]);
+				Assert.assertEquals(0, values[count + 1]);
+			}
+		}
+	}
+
+	@Test
+	public void testReadWriteBits() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos);
+		bos.writeBits(0x5, 3);
+		bos.writeBits(0, 0);
+		bos.writeBits(Long.MIN_VALUE + 1, 64);
+		bos.writeBits(0xABCD, 16);
+		bos.flush();
+
+		BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(0x5, bis.readBits(3));
+		Assert.assertEquals(0, bis.readBits(0));
+		Assert.assertEquals(Long.MIN_VALUE + 1, bis.readBits(64));
+		Assert.assertEquals(0xABCD, bis.readBits(16));
+
+		try {
+			bis.readBits(16);
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testBulkStreamMatchesScalar() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		for(int iteration = 0; iteration < 500; iteration++) {
+			int width = 1 + r.nextInt(32);
+			int leadingBits = r.nextInt(16);
+			int[] values = randomValues(r, r.nextInt(200));
+
+			// write some bits to leave the stream unaligned, then the values
+			// in bulk, then a trailing number
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BitOutputStream bos = new BitOutputStream(baos);
+			bos.writeBits(0x1234, leadingBits);
+			bos.writeBits(width, values, 0, values.length);
+			bos.writeDynamicNumber(-1234);
+			bos.flush();
+			byte[] bulk = baos.toByteArray();
+
+			baos = new ByteArrayOutputStream();
+			bos = new BitOutputStream(baos);
+			bos.writeBits(0x1234, leadingBits);
+			for(int value : values) {
+				bos.writeBits(value, width);
+			}
+			bos.writeDynamicNumber(-1234);
+			bos.flush();
+			byte[] scalar = baos.toByteArray();
+
+			String message = "Failed with seed: " + seed;
+			Assert.assertEquals(message, scalar.length, bulk.length);
+			for(int i = 0; i < scalar.length; i++) {
+				Assert.assertEquals(message, scalar[i], bulk[i]);
+			}
+
+			BitInputStream bis = new BitInputStream(new ByteArrayInputStream(bulk));
+			Assert.assertEquals(message, 0x1234 & ((1L << leadingBits) - 1), bis.readBits(leadingBits));
+			int[] read = new int[values.length];
+			bis.readBits(width, read, 0, read.length);
+			for(int i = 0; i < values.length; i++) {
+				int expected = width == 32 ? values[i] : values[i] & ((1 << width) - 1);
+				Assert.assertEquals(message, expected, read[i]);
+			}
+			Assert.assertEquals(message, -1234, bis.readDynamicNumber());
+		}
+	}
+
+	@Test
+	public void testBulkStreamAcrossChunks() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+		String message = "Failed with seed: " + seed;
+
+		// enough values to need several passes through the packing buffer
+		for(int width : new int[]{1, 7, 13, 31, 32}) {
+			int[] values = randomValues(r, 100000);
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BitOutputStream bos = new BitOutputStream(baos);
+			bos.writeBits(5, 3);
+			bos.writeBits(width, values, 1, values.length - 1);
+			bos.writeDynamicNumber(-1234);
+			bos.flush();
+			byte[] bulk = baos.toByteArray();
+
+			baos = new ByteArrayOutputStream();
+			bos = new BitOutputStream(baos);
+			bos.writeBits(5, 3);
+			for(int i = 1; i < values.length; i++) {
+				bos.writeBits(values[i], width);
+			}
+			bos.writeDynamicNumber(-1234);
+			bos.flush();
+			Assert.assertTrue(message, Arrays.equals(baos.toByteArray(), bulk));
+
+			BitInputStream bis = new BitInputStream(new ByteArrayInputStream(bulk));
+			Assert.assertEquals(message, 5, bis.readBits(3));
+			int[] read = new int[values.length];
+			bis.readBits(width, read, 1, read.length - 1);
+			for(int i = 1; i < values.length; i++) {
+				int expected = width == 32 ? values[i] : values[i] & ((1 << width) - 1);
+				Assert.assertEquals(message, expected, read[i]);
+			}
+			Assert.assertEquals(message, -1234, bis.readDynamicNumber());
+		}
+	}
+
+	@Test
+	public void testInvalidWidth() {
+		try {
+			BitPacking.unpack(new byte[8], 0, 33, new int[1], 0, 1);
+			Assert.fail("Expected exception");
+		} catch (IllegalArgumentException e) {}
+
+		try {
+			BitPacking.pack(new int[1], 0, 1, 0, new byte[8], 0);
+			Assert.fail("Expected exception");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	private static int[] randomValues(Random r, int count) {
+		int[] values = new int[count];
+		for(int i = 0; i < count; i++) {
+			values[i] = r.nextInt();
+		}
+		return values;
+	}
+}
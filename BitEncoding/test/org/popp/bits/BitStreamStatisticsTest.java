@@ -0,0 +1,127 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.popp.bits.BitStreamStatistics.Operation;
+import org.popp.bits.BitStreamStatistics.SizeClass;
+
+public class BitStreamStatisticsTest {
+	private static final long[] IMPORTANT_NUMBERS = {0, -1, 1, 255, -256, 65535, 65536, 4294967295L, 4294967296L, Long.MAX_VALUE};
+
+	@Test
+	public void testWriteAndReadStatistics() throws IOException {
+		BitStreamStatistics statistics = new BitStreamStatistics();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos, statistics);
+		bos.writeBit(1);
+		bos.writeBoolean(true);
+		bos.write(0xAB);
+		for(long number : IMPORTANT_NUMBERS) {
+			bos.writeDynamicNumber(number);
+		}
+		bos.writeUTF("hello", true);
+		bos.flush();
+
+		// 0 once, +-1 twice, 8 bit once, 16 bit twice, 32 bit twice, 64 bit twice
+		Assert.assertEquals(1, statistics.getDynamicNumbersWritten(SizeClass.ZERO));
+		Assert.assertEquals(2, statistics.getDynamicNumbersWritten(SizeClass.ONE));
+		Assert.assertEquals(1, statistics.getDynamicNumbersWritten(SizeClass.BITS_8));
+		Assert.assertEquals(2, statistics.getDynamicNumbersWritten(SizeClass.BITS_16));
+		Assert.assertEquals(2, statistics.getDynamicNumbersWritten(SizeClass.BITS_32));
+		Assert.assertEquals(2, statistics.getDynamicNumbersWritten(SizeClass.BITS_64));
+
+		long numberBits = 1 + 2*3 + 12 + 2*21 + 2*38 + 2*70;
+		Assert.assertEquals(2, statistics.getBitsWritten(Operation.BIT));
+		Assert.assertEquals(8, statistics.getBitsWritten(Operation.BYTE));
+		Assert.assertEquals(numberBits, statistics.getBitsWritten(Operation.DYNAMIC_NUMBER));
+		// 12 bit length prefix plus 5 bytes
+		Assert.assertEquals(12 + 40, statistics.getBitsWritten(Operation.UTF));
+
+		long dataBits = 2 + 8 + numberBits + 12;
+		long paddingBits = 8 - (dataBits % 8);
+		Assert.assertEquals(paddingBits, statistics.getAlignmentPaddingBitsWritten());
+		Assert.assertEquals(baos.size(), statistics.getBytesFlushed());
+		Assert.assertEquals((dataBits + paddingBits) / 8 + 5, statistics.getBytesFlushed());
+
+		// reading it back should account for the same bits
+		BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()), statistics);
+		Assert.assertEquals(1, bis.readBit());
+		Assert.assertEquals(true, bis.readBoolean());
+		Assert.assertEquals(0xAB, bis.read());
+		for(long number : IMPORTANT_NUMBERS) {
+			Assert.assertEquals(number, bis.readDynamicNumber());
+		}
+		Assert.assertEquals("hello", bis.readUTF(true));
+		bis.close();
+
+		for(Operation operation : Operation.values()) {
+			Assert.assertEquals(operation.name(), statistics.getBitsWritten(operation), statistics.getBitsRead(operation));
+		}
+		for(SizeClass sizeClass : SizeClass.values()) {
+			Assert.assertEquals(sizeClass.name(), statistics.getDynamicNumbersWritten(sizeClass), statistics.getDynamicNumbersRead(sizeClass));
+		}
+		Assert.assertEquals(paddingBits, statistics.getAlignmentPaddingBitsRead());
+		Assert.assertEquals(baos.size(), statistics.getBytesFilled());
+
+		statistics.reset();
+		Assert.assertEquals(0, statistics.getBitsWritten(Operation.DYNAMIC_NUMBER));
+		Assert.assertEquals(0, statistics.getBytesFlushed());
+		Assert.assertEquals(0, statistics.getBytesFilled());
+	}
+
+	@Test
+	public void testPublishedOnFlush() throws IOException {
+		BitStreamStatistics statistics = new BitStreamStatistics();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos, statistics);
+		bos.writeBit(1);
+		bos.write(0xFF);
+
+		// counted in the stream until it is flushed
+		Assert.assertEquals(0, statistics.getBitsWritten(Operation.BIT));
+		Assert.assertEquals(0, statistics.getBytesFlushed());
+
+		bos.flush();
+		Assert.assertEquals(1, statistics.getBitsWritten(Operation.BIT));
+		Assert.assertEquals(8, statistics.getBitsWritten(Operation.BYTE));
+		Assert.assertEquals(7, statistics.getAlignmentPaddingBitsWritten());
+		Assert.assertEquals(2, statistics.getBytesFlushed());
+
+		// a long lived reader publishes as it goes, without being closed
+		for(int i = 0; i < BitStreamCounters.PUBLISH_INTERVAL; i++) {
+			bos.writeBit(0);
+		}
+		bos.flush();
+		BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()), statistics);
+		for(int i = 0; i < BitStreamCounters.PUBLISH_INTERVAL; i++) {
+			bis.readBit();
+		}
+		Assert.assertEquals(BitStreamCounters.PUBLISH_INTERVAL, statistics.getBitsRead(Operation.BIT));
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		BitStreamStatistics statistics = new BitStreamStatistics();
+		BitOutputStream bos = new BitOutputStream(new ByteArrayOutputStream(), statistics);
+		bos.writeDynamicNumber(300);
+		bos.close();
+
+		ObjectName name = statistics.register("testRegister");
+		try {
+			Object bytesFlushed = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BytesFlushed");
+			Assert.assertEquals(Long.valueOf(2), bytesFlushed);
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BlockCompressedInputStreamTest {
+
+	@Test
+	public void testSkipBlock() throws IOException {
+		// write ten records, each aligned into its own block
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos);
+		BitOutputStream bos = new BitOutputStream(bcos);
+		for(int record = 0; record < 10; record++) {
+			bos.writeDynamicNumber(record);
+			bos.writeUTF("record " + record, true);
+			bos.writeBit(1);
+			bos.align();
+			bcos.endBlock();
+		}
+		bos.close();
+
+		BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		for(int record = 0; record < 10; record += 3) {
+			// a fresh BitInputStream after every skip
+			BitInputStream bis = new BitInputStream(bcis);
+			Assert.assertEquals(record, bis.readDynamicNumber());
+			Assert.assertEquals("record " + record, bis.readUTF(true));
+			Assert.assertEquals(1, bis.readBit());
+
+			// skip the next two records, the last record has nothing after it
+			if(record < 9) {
+				Assert.assertTrue(bcis.skipBlock());
+				Assert.assertTrue(bcis.skipBlock());
+			}
+		}
+		Assert.assertFalse(bcis.skipBlock());
+		Assert.assertEquals(-1, bcis.read());
+	}
+
+	@Test
+	public void testTruncatedBlock() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos);
+		bcos.write(new byte[]{1, 2, 3, 4});
+		bcos.close();
+
+		byte[] truncated = new byte[baos.size() - 1];
+		System.arraycopy(baos.toByteArray(), 0, truncated, 0, truncated.length);
+
+		try {
+			new BlockCompressedInputStream(new ByteArrayInputStream(truncated)).read();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+
+		try {
+			new BlockCompressedInputStream(new ByteArrayInputStream(truncated)).skipBlock();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testOversizedBlockRejected() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeByte(BlockCompressedOutputStream.COMPRESSED);
+		dos.writeInt(Integer.MAX_VALUE);
+		dos.writeInt(16);
+		dos.write(new byte[16]);
+
+		BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		try {
+			bcis.read();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	@Test
+	public void testMaxBlockSize() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos, 1024, new DeflaterBlockCompressor());
+		bcos.write(new byte[1024]);
+		bcos.close();
+
+		// too small for the blocks that were written
+		BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()), new DeflaterBlockCompressor(), 1023);
+		try {
+			bcis.read();
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+
+		bcis = new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()), new DeflaterBlockCompressor(), 1024);
+		Assert.assertEquals(1024, bcis.read(new byte[2048], 0, 2048));
+	}
+
+	@Test
+	public void testManyEmptyBlocks() throws IOException {
+		// enough empty blocks to overflow the stack if each were a call deeper
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		for(int i = 0; i < 200000; i++) {
+			dos.writeByte(BlockCompressedOutputStream.STORED);
+			dos.writeInt(0);
+			dos.writeInt(0);
+		}
+		dos.writeByte(BlockCompressedOutputStream.STORED);
+		dos.writeInt(1);
+		dos.writeInt(1);
+		dos.writeByte(42);
+
+		BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(42, bcis.read());
+		Assert.assertEquals(-1, bcis.read());
+	}
+}
@@ -0,0 +1,137 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class BlockCompressedOutputStreamTest {
+	private static final int HEADER_SIZE = 9;
+
+	@Test
+	public void testRandomNumberAssortment() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		long[] numbers = new long[20000];
+		for(int i = 0; i < numbers.length; i++) {
+			// mostly small numbers, so the stream is compressible
+			numbers[i] = r.nextInt(10) == 0 ? r.nextLong() : r.nextInt(16);
+		}
+
+		ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(uncompressed);
+		for(long number : numbers) {
+			bos.writeDynamicNumber(number);
+		}
+		bos.flush();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		bos = new BitOutputStream(new BlockCompressedOutputStream(baos, 1024, new DeflaterBlockCompressor()));
+		for(long number : numbers) {
+			bos.writeDynamicNumber(number);
+		}
+		bos.flush();
+		bos.close();
+
+		Assert.assertTrue("Compressed " + baos.size() + " of " + uncompressed.size(), baos.size() < uncompressed.size());
+
+		BitInputStream bis = new BitInputStream(new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray())));
+		for(long number : numbers) {
+			Assert.assertEquals("Failed with seed: " + seed, number, bis.readDynamicNumber());
+		}
+	}
+
+	@Test
+	public void testIncompressibleBlocksAreStored() throws IOException {
+		byte[] data = new byte[2500];
+		new Random(42).nextBytes(data);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos, 1000, new DeflaterBlockCompressor());
+		bcos.write(data);
+		bcos.close();
+
+		// three stored blocks of 1000, 1000 and 500 bytes
+		Assert.assertEquals(data.length + 3 * HEADER_SIZE, baos.size());
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(BlockCompressedOutputStream.STORED, dis.read());
+		Assert.assertEquals(1000, dis.readInt());
+		Assert.assertEquals(1000, dis.readInt());
+
+		byte[] read = new byte[data.length];
+		DataInputStream bcis = new DataInputStream(new BlockCompressedInputStream(new ByteArrayInputStream(baos.toByteArray())));
+		bcis.readFully(read);
+		for(int i = 0; i < data.length; i++) {
+			Assert.assertEquals(data[i], read[i]);
+		}
+		Assert.assertEquals(-1, bcis.read());
+	}
+
+	@Test
+	public void testCompressorOwnership() throws IOException {
+		// a compressor passed in is left open for the caller
+		CloseCountingCompressor compressor = new CloseCountingCompressor();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(new ByteArrayOutputStream(), 16, compressor);
+		bcos.write(new byte[40]);
+		bcos.close();
+		Assert.assertEquals(0, compressor.closes);
+
+		BlockCompressedInputStream bcis = new BlockCompressedInputStream(new ByteArrayInputStream(new byte[0]), compressor);
+		bcis.close();
+		Assert.assertEquals(0, compressor.closes);
+
+		compressor.close();
+		Assert.assertEquals(1, compressor.closes);
+	}
+
+	@Test
+	public void testCompressorReusableAfterClose() throws IOException {
+		DeflaterBlockCompressor compressor = new DeflaterBlockCompressor();
+		compressor.close(); // nothing created yet
+
+		byte[] data = new byte[200];
+		byte[] compressed = new byte[200];
+		byte[] decompressed = new byte[200];
+		for(int round = 0; round < 2; round++) {
+			int compressedLength = compressor.compress(data, 0, data.length, compressed);
+			Assert.assertTrue(compressedLength > 0 && compressedLength < data.length);
+			compressor.decompress(compressed, 0, compressedLength, decompressed, data.length);
+			compressor.close();
+		}
+	}
+
+	@Test
+	public void testEndBlock() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(baos);
+
+		// nothing buffered, so no block is written
+		bcos.endBlock();
+		Assert.assertEquals(0, baos.size());
+
+		bcos.write(new byte[100]);
+		Assert.assertEquals(0, baos.size());
+		bcos.endBlock();
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(BlockCompressedOutputStream.COMPRESSED, dis.read());
+		Assert.assertEquals(100, dis.readInt());
+		Assert.assertEquals(baos.size() - HEADER_SIZE, dis.readInt());
+	}
+
+	private static class CloseCountingCompressor extends DeflaterBlockCompressor {
+		private int closes = 0;
+
+		@Override
+		public void close() {
+			++closes;
+			super.close();
+		}
+	}
+}
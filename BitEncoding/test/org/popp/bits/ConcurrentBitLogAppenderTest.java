@@ -0,0 +1,182 @@
+package org.popp.bits;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class ConcurrentBitLogAppenderTest {
+
+	@Test
+	public void testAppend() throws IOException {
+		File file = File.createTempFile("bitlog", ".bin");
+		file.deleteOnExit();
+
+		ConcurrentBitLogAppender appender = new ConcurrentBitLogAppender(new RandomAccessFile(file, "rw").getChannel());
+		appender.append(new ConcurrentBitLogAppender.Record() {
+			public void writeTo(BitOutputStream os) throws IOException {
+				os.writeBit(1);
+				os.writeDynamicNumber(-300);
+				os.writeUTF("hello", true);
+			}
+		});
+		// an empty record is still framed
+		appender.append(new ConcurrentBitLogAppender.Record() {
+			public void writeTo(BitOutputStream os) throws IOException {}
+		});
+		appender.close();
+		Assert.assertEquals(file.length(), appender.size());
+
+		BitInputStream bis = new BitInputStream(new FileInputStream(file));
+		byte[] record = ConcurrentBitLogAppender.readRecord(bis);
+		BitInputStream recordStream = new BitInputStream(new ByteArrayInputStream(record));
+		Assert.assertEquals(1, recordStream.readBit());
+		Assert.assertEquals(-300, recordStream.readDynamicNumber());
+		Assert.assertEquals("hello", recordStream.readUTF(true));
+
+		Assert.assertEquals(0, ConcurrentBitLogAppender.readRecord(bis).length);
+		Assert.assertNull(ConcurrentBitLogAppender.readRecord(bis));
+		bis.close();
+	}
+
+	@Test
+	public void testFailedRecordDoesNotLeak() throws IOException {
+		File file = File.createTempFile("bitlog", ".bin");
+		file.deleteOnExit();
+
+		ConcurrentBitLogAppender appender = new ConcurrentBitLogAppender(new RandomAccessFile(file, "rw").getChannel());
+		try {
+			// leave a partial byte behind before failing
+			appender.append(new ConcurrentBitLogAppender.Record() {
+				public void writeTo(BitOutputStream os) throws IOException {
+					os.writeBit(1);
+					os.writeBit(1);
+					os.writeBit(1);
+					throw new IOException("Encoding failure");
+				}
+			});
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+		Assert.assertEquals(0, appender.size());
+
+		appender.append(new ConcurrentBitLogAppender.Record() {
+			public void writeTo(BitOutputStream os) throws IOException {
+				os.writeDynamicNumber(5);
+			}
+		});
+		appender.close();
+
+		BitInputStream bis = new BitInputStream(new FileInputStream(file));
+		byte[] record = ConcurrentBitLogAppender.readRecord(bis);
+		Assert.assertEquals(5, new BitInputStream(new ByteArrayInputStream(record)).readDynamicNumber());
+		Assert.assertNull(ConcurrentBitLogAppender.readRecord(bis));
+		bis.close();
+	}
+
+	@Test
+	public void testInterruptedProducer() throws IOException {
+		File file = File.createTempFile("bitlog", ".bin");
+		file.deleteOnExit();
+
+		ConcurrentBitLogAppender appender = new ConcurrentBitLogAppender(new RandomAccessFile(file, "rw").getChannel());
+		Thread.currentThread().interrupt();
+		try {
+			appender.append(new ConcurrentBitLogAppender.Record() {
+				public void writeTo(BitOutputStream os) throws IOException {
+					os.writeDynamicNumber(1);
+				}
+			});
+		} finally {
+			// the interrupt is left for the caller to act on
+			Assert.assertTrue(Thread.interrupted());
+		}
+
+		// the channel is still open for the next record
+		appender.append(new ConcurrentBitLogAppender.Record() {
+			public void writeTo(BitOutputStream os) throws IOException {
+				os.writeDynamicNumber(2);
+			}
+		});
+		appender.close();
+
+		BitInputStream bis = new BitInputStream(new FileInputStream(file));
+		Assert.assertEquals(1, new BitInputStream(new ByteArrayInputStream(ConcurrentBitLogAppender.readRecord(bis))).readDynamicNumber());
+		Assert.assertEquals(2, new BitInputStream(new ByteArrayInputStream(ConcurrentBitLogAppender.readRecord(bis))).readDynamicNumber());
+		Assert.assertNull(ConcurrentBitLogAppender.readRecord(bis));
+		bis.close();
+	}
+
+	@Test
+	public void testConcurrentAppend() throws Exception {
+		final int threadCount = 8;
+		final int recordsPerThread = 2000;
+
+		File file = File.createTempFile("bitlog", ".bin");
+		file.deleteOnExit();
+
+		final ConcurrentBitLogAppender appender = new ConcurrentBitLogAppender(new RandomAccessFile(file, "rw").getChannel());
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < threadCount; t++) {
+			final int producer = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < recordsPerThread; i++) {
+							final int sequence = i;
+							appender.append(new ConcurrentBitLogAppender.Record() {
+								public void writeTo(BitOutputStream os) throws IOException {
+									os.writeDynamicNumber(producer);
+									os.writeDynamicNumber(sequence);
+								}
+							});
+						}
+					} catch (Throwable e) {
+						synchronized(failures) {
+							failures.add(e);
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		appender.close();
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+
+		// every record must be present, and in order for each producer
+		int[] nextSequence = new int[threadCount];
+		BitInputStream bis = new BitInputStream(new BufferedInputStream(new FileInputStream(file)));
+		byte[] record;
+		while((record = ConcurrentBitLogAppender.readRecord(bis)) != null) {
+			BitInputStream recordStream = new BitInputStream(new ByteArrayInputStream(record));
+			int producer = (int)recordStream.readDynamicNumber();
+			int sequence = (int)recordStream.readDynamicNumber();
+			Assert.assertEquals("Producer " + producer, nextSequence[producer], sequence);
+			nextSequence[producer]++;
+		}
+		bis.close();
+
+		for(int t = 0; t < threadCount; t++) {
+			Assert.assertEquals(recordsPerThread, nextSequence[t]);
+		}
+	}
+}
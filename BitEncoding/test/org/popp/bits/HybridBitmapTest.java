@@ -0,0 +1,96 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class HybridBitmapTest {
+
+	@Test
+	public void testWords() {
+		long[] words = {0, 0, -1L, -1L, -1L, 0x1234L, 0, -1L, 7};
+		HybridBitmap bitmap = new HybridBitmap(words);
+
+		Assert.assertEquals(words.length, bitmap.getWordCount());
+		Assert.assertEquals(4 * 64 + Long.bitCount(0x1234L) + 3, bitmap.cardinality());
+
+		long[] read = bitmap.toWords();
+		Assert.assertEquals(words.length, read.length);
+		for(int i = 0; i < words.length; i++) {
+			Assert.assertEquals(words[i], read[i]);
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		HybridBitmap empty = new HybridBitmap(new BitSet());
+		Assert.assertEquals(0, empty.getWordCount());
+		Assert.assertEquals(0, empty.toWords().length);
+		Assert.assertEquals(new BitSet(), empty.toBitSet());
+
+		HybridBitmap other = new HybridBitmap(new long[]{5});
+		Assert.assertEquals(other.toBitSet(), empty.or(other).toBitSet());
+		Assert.assertEquals(0, empty.and(other).cardinality());
+
+		Assert.assertEquals(new BitSet(), roundTrip(empty).toBitSet());
+	}
+
+	@Test
+	public void testRandomAndOr() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		for(int iteration = 0; iteration < 200; iteration++) {
+			BitSet a = RunLengthBitCodecTest.randomRuns(r);
+			BitSet b = RunLengthBitCodecTest.randomRuns(r);
+
+			HybridBitmap bitmapA = new HybridBitmap(a);
+			HybridBitmap bitmapB = new HybridBitmap(b);
+			Assert.assertEquals("Failed with seed: " + seed, a, bitmapA.toBitSet());
+			Assert.assertEquals("Failed with seed: " + seed, a.cardinality(), bitmapA.cardinality());
+
+			BitSet and = (BitSet)a.clone();
+			and.and(b);
+			Assert.assertEquals("Failed with seed: " + seed, and, bitmapA.and(bitmapB).toBitSet());
+			Assert.assertEquals("Failed with seed: " + seed, and, bitmapB.and(bitmapA).toBitSet());
+
+			BitSet or = (BitSet)a.clone();
+			or.or(b);
+			Assert.assertEquals("Failed with seed: " + seed, or, bitmapA.or(bitmapB).toBitSet());
+			Assert.assertEquals("Failed with seed: " + seed, or, bitmapB.or(bitmapA).toBitSet());
+
+			Assert.assertEquals("Failed with seed: " + seed, a, roundTrip(bitmapA).toBitSet());
+		}
+	}
+
+	@Test
+	public void testRunsAreSmall() throws IOException {
+		BitSet bits = new BitSet();
+		bits.set(0, 64 * 10000);
+		bits.set(64 * 20000 + 5);
+
+		HybridBitmap bitmap = new HybridBitmap(bits);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos);
+		bitmap.write(bos);
+		bos.flush();
+
+		// two markers and a single literal word
+		Assert.assertTrue("Encoded in " + baos.size() + " bytes", baos.size() < 30);
+	}
+
+	private static HybridBitmap roundTrip(HybridBitmap bitmap) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos);
+		bitmap.write(bos);
+		bos.flush();
+
+		return HybridBitmap.read(new BitInputStream(new ByteArrayInputStream(baos.toByteArray())));
+	}
+}
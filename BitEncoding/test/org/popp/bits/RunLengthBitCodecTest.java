@@ -0,0 +1,120 @@
+package org.popp.bits;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class RunLengthBitCodecTest {
+
+	@Test
+	public void testWords() throws IOException {
+		long[][] bitmaps = {
+				{},
+				{0},
+				{-1L},
+				{1, 0, 0, Long.MIN_VALUE},
+				{-1L, -1L, 0x00FF00FF00FF00FFL, 0, -2L},
+				{0x5555555555555555L},
+		};
+
+		for(long[] words : bitmaps) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BitOutputStream bos = new BitOutputStream(baos);
+			RunLengthBitCodec.write(bos, words);
+			bos.flush();
+
+			BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()));
+			long[] read = RunLengthBitCodec.readWords(bis);
+			Assert.assertEquals(words.length, read.length);
+			for(int i = 0; i < words.length; i++) {
+				Assert.assertEquals(words[i], read[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testLongRunsAreSmall() throws IOException {
+		BitSet bits = new BitSet();
+		bits.set(100, 1000000);
+		bits.set(2000000);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos);
+		RunLengthBitCodec.write(bos, bits);
+		bos.flush();
+
+		// length, first bit and four runs in well under 30 bytes
+		Assert.assertTrue("Encoded in " + baos.size() + " bytes", baos.size() < 30);
+
+		BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(bits, RunLengthBitCodec.readBitSet(bis));
+	}
+
+	@Test
+	public void testRandomBitSets() throws IOException {
+		long seed = new Random().nextLong();
+		Random r = new Random(seed);
+
+		for(int iteration = 0; iteration < 200; iteration++) {
+			BitSet bits = randomRuns(r);
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BitOutputStream bos = new BitOutputStream(baos);
+			RunLengthBitCodec.write(bos, bits);
+			RunLengthBitCodec.write(bos, BitWords.fromBitSet(bits));
+			bos.flush();
+
+			BitInputStream bis = new BitInputStream(new ByteArrayInputStream(baos.toByteArray()));
+			Assert.assertEquals("Failed with seed: " + seed, bits, RunLengthBitCodec.readBitSet(bis));
+
+			long[] words = RunLengthBitCodec.readWords(bis);
+			long[] expected = BitWords.fromBitSet(bits);
+			Assert.assertEquals("Failed with seed: " + seed, expected.length, words.length);
+			for(int i = 0; i < words.length; i++) {
+				Assert.assertEquals("Failed with seed: " + seed, expected[i], words[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptRunLength() throws IOException {
+		// claims 10 bits, then a run of 11
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BitOutputStream bos = new BitOutputStream(baos);
+		bos.writeDynamicNumber(10);
+		bos.writeBit(1);
+		bos.writeDynamicNumber(11);
+		bos.flush();
+
+		try {
+			RunLengthBitCodec.readWords(new BitInputStream(new ByteArrayInputStream(baos.toByteArray())));
+			Assert.fail("Expected exception");
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Builds a bitmap of random runs, some long and some short enough to
+	 * make noisy words
+	 */
+	static BitSet randomRuns(Random r) {
+		BitSet bits = new BitSet();
+		int position = 0;
+		int runs = r.nextInt(40);
+		boolean value = r.nextBoolean();
+		for(int i = 0; i < runs; i++) {
+			int run = 1 + (r.nextBoolean() ? r.nextInt(8) : r.nextInt(5000));
+			if(value) {
+				bits.set(position, position + run);
+			}
+			position += run;
+			value = !value;
+		}
+		return bits;
+	}
+}